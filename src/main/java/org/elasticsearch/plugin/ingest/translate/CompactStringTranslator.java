@@ -0,0 +1,152 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.FSTCompiler;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * A string translator for very large dictionaries, selected with {@code storage: compact}: the case folded
+ * keys are stored in a Lucene FST mapping each key to the ordinal of its value in a table of the distinct values.
+ *
+ * The FST shares the prefixes and the suffixes of the keys in a few byte arrays, instead of a String and a
+ * HashMap node per key: it is a fraction of the heap of the {@link StringTranslator} and the GC has almost nothing
+ * to trace. A lookup walks the FST along the UTF-8 bytes of the key, slower than a hash lookup.
+ */
+final class CompactStringTranslator extends EntryTranslator {
+  // The keys and the ordinals of their values
+  private FST<Long> fst;
+  // The distinct values, by ordinal
+  private Object[] values;
+
+  CompactStringTranslator(DictionarySource source, TranslatorContext context, boolean loadNow)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, loadNow);
+    if (values == null && loadNow) {
+      throw new IllegalStateException(
+          "Unable to create CompactStringTranslator for [" + source.getName() + "]");
+    }
+  }
+
+
+  @Override
+  public Object lookup(String item, boolean retMultipleValue) {
+    return lookup(new BytesRef(StringTranslator.fold(item)));
+  }
+
+  @Override
+  public Object lookup(CharSequence item, boolean retMultipleValue) {
+    return lookup(new BytesRef(StringTranslator.fold(item)));
+  }
+
+  private Object lookup(BytesRef key) {
+    rlock.lock();
+    try {
+      // the FST of an empty dictionary is null
+      if (fst == null)
+        return null;
+      Long ordinal = Util.get(fst, key);
+      return ordinal == null ? null : values[ordinal.intValue()];
+    } catch (IOException e) {
+      // the FST is on heap
+      throw new UncheckedIOException(e);
+    } finally {
+      rlock.unlock();
+    }
+  }
+
+  @Override
+  boolean foldsKeys() {
+    return true;
+  }
+
+  @Override
+  protected void loadDictionary(Map<String, Object> entries, DictionaryMemory memory) throws IOException {
+    Map.Entry<String, Object>[] items = entries.entrySet().toArray(new Map.Entry[0]);
+    String[] folded = new String[items.length];
+    context.parallelFor(items.length, i -> folded[i] = StringTranslator.fold(items[i].getKey()));
+
+    // the last of the keys equal ignoring case wins
+    Map<String, Object> dictionary = new LinkedHashMap<>();
+    for (int i = 0; i < items.length; i++)
+      dictionary.put(folded[i], items[i].getValue());
+
+    // the values are the canonical instances of the load: equal values have the same ordinal
+    Map<Object, Integer> ordinals = new IdentityHashMap<>();
+    List<Object> tmp_values = new ArrayList<>();
+    byte[][] keys = new byte[dictionary.size()][];
+    long[] keyOrdinals = new long[dictionary.size()];
+    Integer[] order = new Integer[dictionary.size()];
+    int size = 0;
+    for (Map.Entry<String, Object> entry : dictionary.entrySet()) {
+      Integer ordinal = ordinals.get(entry.getValue());
+      if (ordinal == null) {
+        ordinal = tmp_values.size();
+        ordinals.put(entry.getValue(), ordinal);
+        tmp_values.add(entry.getValue());
+      }
+      keys[size] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      keyOrdinals[size] = ordinal;
+      order[size] = size;
+      size++;
+    }
+    // the FST is built from the keys in unsigned byte order
+    Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+
+    FSTCompiler<Long> compiler = new FSTCompiler<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+    IntsRefBuilder scratch = new IntsRefBuilder();
+    for (int i = 0; i < size; i++) {
+      int key = order[i];
+      compiler.add(Util.toIntsRef(new BytesRef(keys[key]), scratch), keyOrdinals[key]);
+      keys[key] = null;
+    }
+    FST<Long> tmp_fst = compiler.compile();
+    Object[] tmp_valuesArray = tmp_values.toArray();
+
+    memory.commit(tmp_fst == null ? 0 : tmp_fst.ramBytesUsed() + DictionaryMemory.sizeOfArray(tmp_valuesArray.length));
+
+    wlock.lock();
+    try {
+      fst = tmp_fst;
+      values = tmp_valuesArray;
+    } finally {
+      wlock.unlock();
+    }
+
+    LOGGER.info("Compact translator for [{}] has {} keys and {} distinct values in an FST of {} bytes",
+                source.getName(), size, tmp_valuesArray.length, tmp_fst == null ? 0 : tmp_fst.ramBytesUsed());
+  }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * A string translator whose keys are tuples of values, written in the dictionary joined by a separator
+ * (e.g. {@code "10.0.0.1|443": web}).
+ *
+ * The tuples are stored in an open addressing hash table and the lookup hashes and compares the components
+ * read from the document one by one, without building the joined key. As for the string translator the
+ * components are compared ignoring case.
+ */
+final class CompositeTranslator extends EntryTranslator {
+  // The separator of the components in the keys of the dictionary
+  private final String separator;
+  // The dictionary for the Translator: the hash table of the case folded components
+  private int[] hashes;
+  private String[][] keys;
+  private Object[] values;
+
+  // The dictionary is always loaded in background: the separator must be set before the first load
+  CompositeTranslator(DictionarySource source, TranslatorContext context, String separator)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, false);
+    this.separator = separator;
+  }
+
+
+  @Override
+  public Object lookup(String item, boolean retMultipleValue) {
+    return lookup(item.split(Pattern.quote(separator), -1), retMultipleValue);
+  }
+
+  // The components can be strings or any other value, matched with its string representation
+  Object lookup(Object[] components, boolean retMultipleValue) {
+    int hash = hash(components);
+    rlock.lock();
+    try {
+      if (keys == null)
+        return null;
+      int mask = keys.length - 1;
+      for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+        if (hashes[slot] == hash && matches(keys[slot], components))
+          return values[slot];
+      }
+      return null;
+    } finally {
+      rlock.unlock();
+    }
+  }
+
+  @Override
+  boolean foldsKeys() {
+    return true;
+  }
+
+  @Override
+  protected void loadDictionary(Map<String, Object> entries, DictionaryMemory memory) throws IOException {
+    Map.Entry<String, Object>[] items = entries.entrySet().toArray(new Map.Entry[0]);
+    String[][] components = new String[items.length][];
+    int[] itemHashes = new int[items.length];
+    Pattern split = Pattern.compile(Pattern.quote(separator));
+    context.parallelFor(items.length, i -> {
+      String[] key = split.split(items[i].getKey(), -1);
+      for (int j = 0; j < key.length; j++)
+        key[j] = StringTranslator.fold(key[j]);
+      components[i] = key;
+      itemHashes[i] = hash(key);
+    });
+
+    // at most half full, the last of the equal keys wins
+    int capacity = DictionaryMemory.tableCapacity(items.length, source.getName());
+    int[] tmp_hashes = new int[capacity];
+    String[][] tmp_keys = new String[capacity][];
+    Object[] tmp_values = new Object[capacity];
+    for (int i = 0; i < items.length; i++) {
+      int slot = itemHashes[i] & (capacity - 1);
+      while (tmp_keys[slot] != null &&
+             (tmp_hashes[slot] != itemHashes[i] || matches(tmp_keys[slot], components[i]) == false))
+        slot = (slot + 1) & (capacity - 1);
+      tmp_hashes[slot] = itemHashes[i];
+      tmp_keys[slot] = components[i];
+      tmp_values[slot] = items[i].getValue();
+    }
+
+    long bytes = RamUsageEstimator.sizeOf(tmp_hashes) + 2 * DictionaryMemory.sizeOfArray(capacity);
+    for (String[] key : tmp_keys) {
+      if (key != null) {
+        bytes += DictionaryMemory.sizeOfArray(key.length);
+        for (String component : key)
+          bytes += RamUsageEstimator.sizeOf(component);
+      }
+    }
+    memory.commit(bytes);
+
+    wlock.lock();
+    try {
+      hashes = tmp_hashes;
+      keys = tmp_keys;
+      values = tmp_values;
+    } finally {
+      wlock.unlock();
+    }
+
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Entries for [{}] are:", source.getName());
+      for (int slot = 0; slot < capacity; slot++) {
+        if (tmp_keys[slot] != null)
+          LOGGER.debug("  - {}: {}", String.join(separator, tmp_keys[slot]), tmp_values[slot]);
+      }
+    }
+  }
+
+  // The hash of the case folded string representations of the components
+  private static int hash(Object[] components) {
+    int hash = components.length;
+    for (Object component : components)
+      hash = 31 * hash + hash(component);
+    // spreads the high bits on the low ones used by the table
+    return hash ^ (hash >>> 16);
+  }
+
+  // An integral number is hashed as its decimal string without building it
+  private static int hash(Object component) {
+    int h = 0;
+    if (component instanceof CharSequence) {
+      CharSequence chars = (CharSequence) component;
+      for (int i = 0; i < chars.length(); i++)
+        h = 31 * h + fold(chars.charAt(i));
+    } else if (isIntegral(component) && ((Number) component).longValue() != Long.MIN_VALUE) {
+      long value = ((Number) component).longValue();
+      if (value < 0)
+        h = '-';
+      for (long divisor = divisor(value); divisor > 0; divisor /= 10)
+        h = 31 * h + (char) ('0' + Math.abs(value / divisor % 10));
+    } else if (component != null) {
+      h = hash(component.toString());
+    }
+    return h;
+  }
+
+  private static boolean matches(String[] key, Object[] components) {
+    if (key.length != components.length)
+      return false;
+    for (int i = 0; i < key.length; i++) {
+      if (matches(key[i], components[i]) == false)
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean matches(String key, Object component) {
+    if (component instanceof CharSequence) {
+      CharSequence chars = (CharSequence) component;
+      if (chars.length() != key.length())
+        return false;
+      for (int i = 0; i < key.length(); i++) {
+        if (fold(chars.charAt(i)) != key.charAt(i))
+          return false;
+      }
+      return true;
+    } else if (isIntegral(component) && ((Number) component).longValue() != Long.MIN_VALUE) {
+      long value = ((Number) component).longValue();
+      int i = 0;
+      if (value < 0 && (key.isEmpty() || key.charAt(i++) != '-'))
+        return false;
+      for (long divisor = divisor(value); divisor > 0; divisor /= 10) {
+        if (i >= key.length() || key.charAt(i++) != (char) ('0' + Math.abs(value / divisor % 10)))
+          return false;
+      }
+      return i == key.length();
+    }
+    return component != null && matches(key, component.toString());
+  }
+
+  private static boolean isIntegral(Object component) {
+    return component instanceof Long || component instanceof Integer ||
+           component instanceof Short || component instanceof Byte;
+  }
+
+  // The power of ten of the most significant digit
+  private static long divisor(long value) {
+    long divisor = 1;
+    while (Math.abs(value / divisor) >= 10)
+      divisor *= 10;
+    return divisor;
+  }
+
+  private static char fold(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+}
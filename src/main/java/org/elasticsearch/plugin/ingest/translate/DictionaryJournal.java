@@ -0,0 +1,248 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.SpecialPermission;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLGenerator;
+
+
+
+/**
+ * The entries changed one by one since the last rewrite of a dictionary file, stored in
+ * {@code <dictionary>.journal} next to it: a JSON object per line, {@code {"upsert":key,"value":value}}
+ * or {@code {"delete":key}}, in the order of the changes.
+ *
+ * A change is durable once appended: every load of the dictionary replays the journal over the file, and the
+ * compaction rewrites the file with the journal applied and then deletes the journal. Both are idempotent, so
+ * a crash between the two steps replays the journal over a file that already has the changes. A last line
+ * without its line feed is a change interrupted by a crash: it is ignored and overwritten by the next one.
+ *
+ * The changes of the entries API are serialized on the monitor of the journal, held while a change is
+ * appended and then applied to the loaded translators.
+ */
+final class DictionaryJournal {
+  private static final Logger LOGGER = LogManager.getLogger(DictionaryJournal.class);
+  private static final String SUFFIX = ".journal";
+
+  private final Path dictionaryPath;
+  private final Path journalPath;
+  private final ObjectMapper jsonMapper = new ObjectMapper();
+  // Held by the loads while the journal is replayed and by the appends and the compaction while it is written
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  // The changes in the journal and the length of its complete lines, -1 until the journal is read
+  private int size = -1;
+  private long length = -1;
+
+  DictionaryJournal(Path dictionaryPath) {
+    this.dictionaryPath = dictionaryPath;
+    this.journalPath = dictionaryPath.resolveSibling(dictionaryPath.getFileName() + SUFFIX);
+  }
+
+  static boolean isJournal(Path file) {
+    return file.getFileName().toString().endsWith(SUFFIX);
+  }
+
+  Path getPath() {
+    return journalPath;
+  }
+
+  // The number of changes not compacted yet
+  int size() throws IOException {
+    lock.writeLock().lock();
+    try {
+      scan();
+      return size;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Appends the upserts and then the deletes, and forces them to the disk
+  void append(Map<String, Object> upserts, List<String> deletes) throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (Map.Entry<String, Object> upsert : upserts.entrySet()) {
+      Map<String, Object> change = new LinkedHashMap<>();
+      change.put("upsert", upsert.getKey());
+      change.put("value", upsert.getValue());
+      lines.append(jsonMapper.writeValueAsString(change)).append('\n');
+    }
+    for (String delete : deletes) {
+      Map<String, Object> change = new HashMap<>();
+      change.put("delete", delete);
+      lines.append(jsonMapper.writeValueAsString(change)).append('\n');
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+
+    lock.writeLock().lock();
+    try {
+      scan();
+      doPrivileged(() -> {
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+          // drops the line interrupted by a crash, if any
+          channel.truncate(length);
+          channel.position(length);
+          while (buffer.hasRemaining())
+            channel.write(buffer);
+          channel.force(false);
+        }
+        return null;
+      });
+      length += buffer.limit();
+      size += upserts.size() + deletes.size();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Applies the changes to the entries read from the dictionary file, whose keys are compared as normalized
+  // by the translator. Returns the number of changes.
+  int replay(Map<String, Object> entries, UnaryOperator<String> normalizer) throws IOException {
+    lock.readLock().lock();
+    try {
+      List<Map<String, Object>> changes = read();
+      if (changes.isEmpty())
+        return 0;
+      // the key of the entries by normalized key: the last of the equal keys wins, as in the loads
+      Map<String, String> keys = new HashMap<>();
+      for (String key : entries.keySet())
+        keys.put(normalizer.apply(key), key);
+      for (Map<String, Object> change : changes) {
+        boolean upsert = change.containsKey("upsert");
+        String key = String.valueOf(upsert ? change.get("upsert") : change.get("delete"));
+        String current = upsert ? keys.put(normalizer.apply(key), key) : keys.remove(normalizer.apply(key));
+        if (current != null)
+          entries.remove(current);
+        if (upsert)
+          entries.put(key, change.get("value"));
+      }
+      return changes.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Rewrites the dictionary file with the changes applied and deletes the journal. The translators see
+  // the new file as a changed dictionary and reload it.
+  void compact(TranslatorContext context, UnaryOperator<String> normalizer) throws IOException {
+    lock.writeLock().lock();
+    try {
+      scan();
+      if (size == 0)
+        return;
+      DictionaryMemory memory = context.newDictionaryMemory(dictionaryPath.getFileName() + SUFFIX);
+      try {
+        Map<String, Object> entries = new FileDictionarySource(dictionaryPath).load(context, memory);
+        int changes = replay(entries, normalizer);
+        // hidden, so that it is not a partition of a directory
+        Path tmp = dictionaryPath.resolveSibling("." + dictionaryPath.getFileName() + ".compact");
+        doPrivileged(() -> {
+          // a compressed dictionary stays compressed
+          try (OutputStream out = FileDictionarySource.isCompressed(dictionaryPath) ?
+                                  new GZIPOutputStream(Files.newOutputStream(tmp)) : Files.newOutputStream(tmp)) {
+            new ObjectMapper(new YAMLFactory().disable(YAMLGenerator.Feature.WRITE_DOC_START_MARKER))
+                .writeValue(out, entries);
+          }
+          Files.move(tmp, dictionaryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          Files.deleteIfExists(journalPath);
+          return null;
+        });
+        size = 0;
+        length = 0;
+        LOGGER.info("Journal of [{}] compacted: {} changes written to the dictionary with {} entries",
+                    dictionaryPath.getFileName(), changes, entries.size());
+      } finally {
+        memory.release();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Counts the changes of the journal, the first time it is written
+  private void scan() throws IOException {
+    if (size >= 0)
+      return;
+    List<Map<String, Object>> changes = read();
+    size = changes.size();
+  }
+
+  // The complete lines of the journal
+  private List<Map<String, Object>> read() throws IOException {
+    byte[] content = doPrivileged(() -> Files.exists(journalPath) ? Files.readAllBytes(journalPath) : new byte[0]);
+    List<Map<String, Object>> changes = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < content.length; i++) {
+      if (content[i] != '\n')
+        continue;
+      String line = new String(content, start, i - start, StandardCharsets.UTF_8);
+      if (line.trim().isEmpty() == false) {
+        Map<String, Object> change = jsonMapper.readValue(line, Map.class);
+        if (change == null || (change.containsKey("upsert") == change.containsKey("delete")))
+          throw new IOException("the journal [" + journalPath + "] has an invalid change [" + line + "]");
+        changes.add(change);
+      }
+      start = i + 1;
+    }
+    if (start < content.length) {
+      LOGGER.warn("The journal [{}] ends with an incomplete change of {} bytes, ignored", journalPath,
+                  content.length - start);
+    }
+    if (lock.isWriteLockedByCurrentThread())
+      length = start;
+    return changes;
+  }
+
+  private static <T> T doPrivileged(PrivilegedExceptionAction<T> action) throws IOException {
+    SpecialPermission.check();
+    try {
+      return AccessController.doPrivileged(action);
+    } catch (PrivilegedActionException e) {
+      // e.getException() should be an instance of IOException
+      // as only checked exceptions will be wrapped in a
+      // PrivilegedActionException.
+      throw (IOException) e.getException();
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * The heap accounting of a load of a dictionary against the translate circuit breaker.
+ *
+ * The entries are estimated while they are read, then the estimate is replaced by the size of the built
+ * dictionary: a load exceeding the budget of the dictionary or of the node breaks and the current
+ * dictionary keeps serving. The bytes stay accounted until the dictionary is replaced.
+ */
+final class DictionaryMemory {
+  // The estimates of the entries are sent to the breaker in batches of this size
+  private static final long BATCH_BYTES = 1L << 20;
+  // The largest power of two length of an array
+  static final int MAX_TABLE_CAPACITY = 1 << 30;
+
+  private final String dictionary;
+  private final CircuitBreaker breaker;
+  // The budget of the dictionary, -1 if unbounded
+  private final long limit;
+  // The estimated size, the part not sent to the breaker yet and the part accounted by the breaker
+  private final AtomicLong estimated = new AtomicLong();
+  private final AtomicLong pending = new AtomicLong();
+  private final AtomicLong accounted = new AtomicLong();
+  // The size of the distinct values, shared by the built structure
+  private volatile long valuesBytes;
+
+  DictionaryMemory(String dictionary, CircuitBreaker breaker, long limit) {
+    this.dictionary = dictionary;
+    this.breaker = breaker;
+    this.limit = limit;
+  }
+
+  // Accounts an entry while it is read, can be called by several threads
+  void addEstimate(long bytes) {
+    checkLimit(estimated.addAndGet(bytes));
+    if (pending.addAndGet(bytes) >= BATCH_BYTES) {
+      long batch = pending.getAndSet(0);
+      if (batch > 0)
+        account(batch);
+    }
+  }
+
+  // Gives back the estimates of entries read and then discarded, e.g. by a parse done again as a whole.
+  // Not called concurrently with addEstimate.
+  void discardEstimate(long bytes) {
+    estimated.addAndGet(-bytes);
+    long unsent = Math.min(bytes, Math.max(0, pending.get()));
+    pending.addAndGet(-unsent);
+    if (bytes > unsent) {
+      breaker.addWithoutBreaking(-(bytes - unsent));
+      accounted.addAndGet(-(bytes - unsent));
+    }
+  }
+
+  void setValuesBytes(long valuesBytes) {
+    this.valuesBytes = valuesBytes;
+  }
+
+  // Replaces the estimate of the entries with the size of the built structure and of its values
+  void commit(long structureBytes) {
+    long size = structureBytes + valuesBytes;
+    estimated.set(size);
+    pending.set(0);
+    checkLimit(size);
+    long delta = size - accounted.get();
+    if (delta > 0) {
+      account(delta);
+    } else {
+      breaker.addWithoutBreaking(delta);
+      accounted.addAndGet(delta);
+    }
+  }
+
+  // Accounts the change of an entry of the loaded dictionary. It doesn't break: the change is already persisted.
+  void adjust(long bytes) {
+    estimated.addAndGet(bytes);
+    breaker.addWithoutBreaking(bytes);
+    accounted.addAndGet(bytes);
+  }
+
+  long getEstimatedBytes() {
+    return estimated.get();
+  }
+
+  // Gives back to the breaker all the accounted bytes
+  void release() {
+    breaker.addWithoutBreaking(-accounted.getAndSet(0));
+  }
+
+  private void account(long bytes) {
+    breaker.addEstimateBytesAndMaybeBreak(bytes, "<translate_dictionary:" + dictionary + ">");
+    accounted.addAndGet(bytes);
+  }
+
+  private void checkLimit(long size) {
+    if (limit >= 0 && size > limit) {
+      throw new CircuitBreakingException("the dictionary [" + dictionary + "] would be [" + size + "/" +
+                                         new ByteSizeValue(size) + "], which is larger than the limit of [" +
+                                         limit + "/" + new ByteSizeValue(limit) + "]",
+                                         size, limit, CircuitBreaker.Durability.PERMANENT);
+    }
+  }
+
+  // The estimated size of the entries read from a source
+  static long sizeOfEntry(String key, Object value) {
+    return RamUsageEstimator.sizeOf(key) + RamUsageEstimator.sizeOfObject(value);
+  }
+
+  // The estimated size of an array of references
+  static long sizeOfArray(int length) {
+    return RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER +
+                                             (long) length * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+  }
+
+  // The capacity of an open addressing table at most half full: the power of two at least twice the entries,
+  // computed in long as the doubling overflows an int past 2^30 entries
+  static int tableCapacity(int entries, String dictionary) {
+    long capacity = Long.highestOneBit(Math.max(2L, entries) * 2 - 1) * 2;
+    if (capacity > MAX_TABLE_CAPACITY)
+      throw new IllegalArgumentException("the dictionary [" + dictionary + "] has too many entries [" + entries +
+                                         "] for a table of at most [" + MAX_TABLE_CAPACITY + "] slots");
+    return (int) capacity;
+  }
+
+  // The estimated size of a HashMap, keys and values excluded
+  static long sizeOfHashMap(int size) {
+    int capacity = Integer.highestOneBit(Math.max(1, (int) (size / 0.75f) + 1) * 2 - 1);
+    return RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 3L * Integer.BYTES +
+                                             Float.BYTES + 4L * RamUsageEstimator.NUM_BYTES_OBJECT_REF) +
+           sizeOfArray(capacity) + size * sizeOfHashMapNode();
+  }
+
+  // The estimated size of an entry of a HashMap, key and value excluded
+  static long sizeOfHashMapNode() {
+    return RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + Integer.BYTES +
+                                             3L * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+  }
+
+}
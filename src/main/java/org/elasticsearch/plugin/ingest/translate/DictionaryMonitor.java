@@ -0,0 +1,181 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.time.ExecutionTime;
+
+
+
+/**
+ * The single schedule checking the changes of the dictionaries of all the translators of a context, static or
+ * named by the documents, instead of a Monitoring Thread for each of them.
+ *
+ * The translators are checked one after the other on a single thread at each execution of the cron, the ones whose
+ * first load failed every few seconds. The thread is started with the first monitored translator and stopped with
+ * the last one.
+ */
+final class DictionaryMonitor {
+  private static final Logger LOGGER = LogManager.getLogger(DictionaryMonitor.class);
+  // Delay between two attempts of the first load of a dictionary
+  private static final long LOAD_RETRY_INTERVAL_MILLIS = 5000L;
+
+  private final Cron cron;
+  // The monitored translators in the order they were added, guarded by the monitor
+  private final Set<Translator> translators = new LinkedHashSet<>();
+  // The schedule of the checks and its thread, null while no translator is monitored
+  private ScheduledThreadPoolExecutor scheduler;
+  private Thread thread;
+  // The next tick of the schedule
+  private ScheduledFuture<?> nextTick;
+  // The translator being checked, null between the checks
+  private Translator checking;
+  // The next execution of the cron
+  private long nextCronMillis;
+
+  DictionaryMonitor(Cron cron) {
+    this.cron = cron;
+  }
+
+  synchronized void add(Translator translator) {
+    if (translators.add(translator) == false)
+      return;
+    if (scheduler != null) {
+      // a first load that failed is retried soon, not at the next execution of the cron
+      if (translator.isLoaded() == false && nextTick.getDelay(TimeUnit.MILLISECONDS) > LOAD_RETRY_INTERVAL_MILLIS &&
+          nextTick.cancel(false))
+        schedule(scheduler, System.currentTimeMillis());
+      return;
+    }
+    ScheduledThreadPoolExecutor newScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      thread = new Thread(runnable, "ingest.translate.monitor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    newScheduler.setRemoveOnCancelPolicy(true);
+    scheduler = newScheduler;
+    nextCronMillis = nextCronMillis();
+    schedule(newScheduler, System.currentTimeMillis());
+    LOGGER.info("Monitoring of the dictionaries started");
+  }
+
+  // Once removed the translator is not checked anymore: its check still running is waited, unless the caller is
+  // the check itself
+  void remove(Translator translator) {
+    ScheduledThreadPoolExecutor stopped = null;
+    synchronized (this) {
+      if (translators.remove(translator) == false)
+        return;
+      while (checking == translator && Thread.currentThread() != thread) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (translators.isEmpty()) {
+        stopped = scheduler;
+        scheduler = null;
+        thread = null;
+        nextTick = null;
+        stopped.shutdownNow();
+      }
+    }
+    if (stopped != null) {
+      LOGGER.info("Monitoring of the dictionaries stopped");
+      try {
+        stopped.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  synchronized boolean isMonitored(Translator translator) {
+    return translators.contains(translator);
+  }
+
+  private void tick(ScheduledThreadPoolExecutor current) {
+    List<Translator> due = new ArrayList<>();
+    synchronized (this) {
+      if (scheduler != current)
+        return;
+      boolean cronDue = System.currentTimeMillis() >= nextCronMillis;
+      if (cronDue)
+        nextCronMillis = nextCronMillis();
+      for (Translator translator : translators) {
+        if (cronDue || translator.isLoaded() == false)
+          due.add(translator);
+      }
+    }
+
+    for (Translator translator : due) {
+      synchronized (this) {
+        if (scheduler != current || Thread.currentThread().isInterrupted())
+          return;
+        if (translators.contains(translator) == false)
+          continue;
+        checking = translator;
+      }
+      try {
+        translator.check();
+      } finally {
+        synchronized (this) {
+          checking = null;
+          notifyAll();
+        }
+      }
+    }
+
+    synchronized (this) {
+      if (scheduler == current)
+        schedule(current, System.currentTimeMillis());
+    }
+  }
+
+  // The next tick is the next execution of the cron, or the next retry of the first loads that failed
+  private void schedule(ScheduledThreadPoolExecutor current, long now) {
+    long delay = nextCronMillis - now;
+    for (Translator translator : translators) {
+      if (translator.isLoaded() == false) {
+        delay = Math.min(delay, LOAD_RETRY_INTERVAL_MILLIS);
+        break;
+      }
+    }
+    nextTick = current.schedule(() -> tick(current), Math.max(0, delay), TimeUnit.MILLISECONDS);
+  }
+
+  private long nextCronMillis() {
+    ExecutionTime executionTime = ExecutionTime.forCron(cron);
+    return System.currentTimeMillis() + executionTime.timeToNextExecution(ZonedDateTime.now()).get().toMillis();
+  }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import java.io.IOException;
+import java.util.Map;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * Where the entries of a dictionary come from.
+ *
+ * A source is only read by the monitoring machinery of a {@link Translator}: the entries are compiled
+ * into the translator's in-memory lookup structure, so a source is never queried per document.
+ */
+abstract class DictionarySource {
+
+  // The name used in logs and as thread name
+  abstract String getName();
+
+  // A cheap fingerprint of the current content: the dictionary is reloaded only when it changes
+  abstract String checksum() throws IOException, NoSuchAlgorithmException;
+
+  // The entries of the dictionary, in source order, each one accounted while it is read
+  abstract Map<String, Object> load(TranslatorContext context, DictionaryMemory memory) throws IOException;
+
+  // If true the first load is never awaited by the pipeline creation
+  boolean loadsInBackground() {
+    return false;
+  }
+
+}
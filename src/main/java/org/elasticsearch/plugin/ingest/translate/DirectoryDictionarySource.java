@@ -0,0 +1,150 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.SpecialPermission;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.security.AccessController;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+/**
+ * A dictionary split in several YAML files, the partitions: all the files of a directory or the files
+ * matching a glob (e.g. {@code feed/part-*.yml}) of the {@code ingest-translate} configuration directory.
+ *
+ * The partitions are sorted by file name and are loaded one by one by a {@link PartitionedTranslator}. A file
+ * whose name looks like a glob, e.g. {@code hosts[eu].yml}, is a plain dictionary as long as it exists.
+ */
+final class DirectoryDictionarySource extends DictionarySource {
+  private final String name;
+  private final Path directory;
+  private final PathMatcher matcher;
+
+  DirectoryDictionarySource(String name, Path directory, String glob) {
+    this.name = name;
+    this.directory = directory;
+    this.matcher = directory.getFileSystem().getPathMatcher("glob:" + glob);
+  }
+
+  // Returns the source of the dictionary: a directory or a glob is a partitioned dictionary. An existing file is
+  // always read as it is, also if its name has the special characters of a glob.
+  static DictionarySource of(Path translateConfigDirectory, String dictionary) {
+    Path path = translateConfigDirectory.resolve(dictionary);
+    if (Files.isRegularFile(path))
+      return new FileDictionarySource(path);
+    if (Files.isDirectory(path))
+      return new DirectoryDictionarySource(dictionary, path, "*");
+    if (dictionary.matches(".*[*?\\[{].*"))
+      return new DirectoryDictionarySource(dictionary, path.getParent(), path.getFileName().toString());
+    return new FileDictionarySource(path);
+  }
+
+  @Override
+  String getName() {
+    return name;
+  }
+
+  // True if the file is a partition of the dictionary, whether it exists or not
+  boolean isPartition(Path file) {
+    Path normalized = file.normalize();
+    return normalized.getParent() != null && normalized.getParent().equals(directory.normalize()) &&
+           matcher.matches(normalized.getFileName());
+  }
+
+  // The files of the partitions sorted by name
+  List<Path> list() throws IOException {
+    SpecialPermission.check();
+    try {
+      return AccessController.doPrivileged((PrivilegedExceptionAction<List<Path>>) () -> {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(directory) == false)
+          return files;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+          for (Path file : stream) {
+            // the journals of the live changes are replayed by the partitions
+            if (Files.isRegularFile(file) && Files.isHidden(file) == false && matcher.matches(file.getFileName()) &&
+                DictionaryJournal.isJournal(file) == false)
+              files.add(file);
+          }
+        }
+        Collections.sort(files);
+        return files;
+      });
+    } catch (PrivilegedActionException e) {
+      // e.getException() should be an instance of IOException
+      // as only checked exceptions will be wrapped in a
+      // PrivilegedActionException.
+      throw (IOException) e.getException();
+    }
+  }
+
+  // Changes when a partition is added, removed or changed
+  @Override
+  String checksum() throws IOException, NoSuchAlgorithmException {
+    return checksum(checksums());
+  }
+
+  // The checksums of the partitions sorted by file name, each file is read once
+  Map<Path, String> checksums() throws IOException, NoSuchAlgorithmException {
+    List<Path> files = list();
+    if (files.isEmpty()) {
+      throw new IllegalStateException("the dictionary [" + name + "] has no partitions in [" + directory + "]");
+    }
+
+    Map<Path, String> checksums = new LinkedHashMap<>();
+    for (Path file : files)
+      checksums.put(file, new FileDictionarySource(file).checksum());
+    return checksums;
+  }
+
+  // The checksum of the dictionary from the ones of its partitions
+  static String checksum(Map<Path, String> checksums) throws NoSuchAlgorithmException {
+    MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+    for (Map.Entry<Path, String> partition : checksums.entrySet()) {
+      String line = partition.getKey().getFileName() + ":" + partition.getValue() + "\n";
+      messageDigest.update(line.getBytes(StandardCharsets.UTF_8));
+    }
+    return new BigInteger(1, messageDigest.digest()).toString(16);
+  }
+
+  // All the partitions merged in file name order
+  @Override
+  Map<String, Object> load(TranslatorContext context, DictionaryMemory memory) throws IOException {
+    Map<String, Object> entries = new LinkedHashMap<>();
+    for (Path file : list())
+      entries.putAll(new FileDictionarySource(file).load(context, memory));
+    return entries;
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * A translator whose dictionary is a single lookup structure built from all the entries of its source.
+ *
+ * A load reads the entries, replays the journal of the live changes and interns the values, then the
+ * subclass builds its structure from them and swaps it with the current one.
+ */
+abstract class EntryTranslator extends Translator {
+
+  EntryTranslator(DictionarySource source, TranslatorContext context, boolean loadNow)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, loadNow);
+  }
+
+  // Builds the lookup structure from the source entries and swaps it with the current one.
+  // The size of the structure is committed to the memory before the swap, that doesn't happen if it breaks.
+  protected abstract void loadDictionary(Map<String, Object> entries, DictionaryMemory memory) throws IOException;
+
+  @Override
+  protected final LoadStats load(DictionaryMemory memory) throws IOException, NoSuchAlgorithmException {
+    // the source is read without holding the lock: lookups are blocked only by the swap
+    TranslatorEvents.DictionaryParse parse = new TranslatorEvents.DictionaryParse();
+    parse.begin();
+    Map<String, Object> entries = source.load(context, memory);
+    if (supportsLiveChanges() && source instanceof FileDictionarySource)
+      context.getJournal(((FileDictionarySource) source).getPath()).replay(entries, this::normalizeKey);
+    ValueInterner interner = new ValueInterner();
+    internValues(entries, interner);
+    // the entries without the projected value are not written by the processor
+    if (context.hasProjection())
+      entries.values().removeIf(Objects::isNull);
+    parse.end();
+    if (parse.shouldCommit()) {
+      parse.dictionary = source.getName();
+      parse.entries = entries.size();
+      parse.valuesBytes = interner.retainedBytes();
+      parse.commit();
+    }
+
+    memory.setValuesBytes(interner.retainedBytes());
+    TranslatorEvents.DictionaryBuild build = new TranslatorEvents.DictionaryBuild();
+    build.begin();
+    loadDictionary(entries, memory);
+    build.end();
+    if (build.shouldCommit()) {
+      build.dictionary = source.getName();
+      build.entries = entries.size();
+      build.estimatedBytes = memory.getEstimatedBytes();
+      build.commit();
+    }
+    return new LoadStats(entries.size(), interner.distinctValues(), interner.savedBytes(),
+                         memory.getEstimatedBytes(), System.currentTimeMillis());
+  }
+
+  // Replaces the values of the entries with the canonical instances of their projections
+  private void internValues(Map<String, Object> entries, ValueInterner interner) throws IOException {
+    Map.Entry<String, Object>[] items = entries.entrySet().toArray(new Map.Entry[0]);
+    context.parallelFor(items.length, i -> items[i].setValue(interner.intern(context.project(items[i].getValue()))));
+  }
+
+}
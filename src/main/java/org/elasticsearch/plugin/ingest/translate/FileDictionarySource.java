@@ -0,0 +1,310 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+
+import org.elasticsearch.SpecialPermission;
+import java.security.AccessController;
+import java.security.PrivilegedExceptionAction;
+import java.security.PrivilegedActionException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+import java.security.MessageDigest;
+import java.security.DigestInputStream;
+import java.security.NoSuchAlgorithmException;
+import java.math.BigInteger;
+
+
+
+/**
+ * A dictionary stored in a YAML file of the {@code ingest-translate} configuration directory.
+ *
+ * A file ending with {@code .gz} is decompressed while it is parsed, without being written uncompressed
+ * anywhere, and its checksum is computed on the compressed bytes.
+ */
+final class FileDictionarySource extends DictionarySource {
+  // Files smaller than this are always parsed by a single thread
+  private static final long PARALLEL_PARSE_THRESHOLD = 1L << 20;
+  // The buffer of the decompression
+  private static final int GZIP_BUFFER_SIZE = 1 << 16;
+
+  private final Path dictionaryPath;
+
+  FileDictionarySource(Path dictionaryPath) {
+    this.dictionaryPath = dictionaryPath;
+  }
+
+  Path getPath() {
+    return dictionaryPath;
+  }
+
+  @Override
+  String getName() {
+    return dictionaryPath.getFileName().toString();
+  }
+
+  @Override
+  String checksum() throws IOException, NoSuchAlgorithmException {
+    if (Files.exists(dictionaryPath) == false) {
+      throw new IllegalStateException(
+          "the file [" + dictionaryPath + "] doesn't exist");
+    }
+
+    MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+    try (InputStream inputStream = Files.newInputStream(dictionaryPath);
+         DigestInputStream digestInputStream = new DigestInputStream(inputStream, messageDigest)) {
+      byte[] buffer = new byte[8192];
+      while (digestInputStream.read(buffer) > -1) {}
+    }
+    byte[] md5 = messageDigest.digest();
+    return new BigInteger(1, md5).toString(16);
+  }
+
+  @Override
+  Map<String, Object> load(TranslatorContext context, DictionaryMemory memory) throws IOException {
+    SpecialPermission.check();
+    try {
+      return AccessController.doPrivileged((PrivilegedExceptionAction< Map<String, Object> >) () -> {
+        // a compressed file is parsed as a stream, by a single thread
+        if (context.getParallelism() > 1 && isCompressed(dictionaryPath) == false &&
+            Files.size(dictionaryPath) >= PARALLEL_PARSE_THRESHOLD)
+          return parseInChunks(dictionaryPath, context, memory);
+
+        try (InputStream fileStream = newInputStream(dictionaryPath)) {
+          ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
+          return readEntries(yamlReader, yamlReader.createParser(fileStream), memory::addEstimate);
+        }
+      });
+    } catch (PrivilegedActionException e) {
+      // e.getException() should be an instance of IOException
+      // as only checked exceptions will be wrapped in a
+      // PrivilegedActionException.
+      throw (IOException) e.getException();
+    }
+  }
+
+  static boolean isCompressed(Path path) {
+    return path.getFileName().toString().endsWith(".gz");
+  }
+
+  // The content of the file, decompressed if needed
+  static InputStream newInputStream(Path path) throws IOException {
+    String fileName = path.getFileName().toString();
+    if (fileName.endsWith(".zst") || fileName.endsWith(".zstd")) {
+      throw new IOException("the dictionary [" + fileName + "] is compressed with zstd, which is not supported: " +
+                            "compress it with gzip");
+    }
+    InputStream fileStream = Files.newInputStream(path, StandardOpenOption.READ);
+    if (isCompressed(path) == false)
+      return fileStream;
+    try {
+      return new GZIPInputStream(fileStream, GZIP_BUFFER_SIZE);
+    } catch (IOException e) {
+      fileStream.close();
+      throw e;
+    }
+  }
+
+  // Parses the chunks of the file in parallel and merges them in file order. Each chunk is streamed from its
+  // offset in the file: the file is never held in the heap, whatever its size.
+  private static Map<String, Object> parseInChunks(Path path, TranslatorContext context, DictionaryMemory memory)
+      throws IOException {
+    long[] bounds;
+    try (InputStream content = Files.newInputStream(path, StandardOpenOption.READ)) {
+      bounds = splitAtTopLevelKeys(content, Files.size(path), context.getParallelism() * 2);
+    }
+    List<Map<String, Object>> chunks = new ArrayList<>(bounds.length - 1);
+    for (int i = 0; i < bounds.length - 1; i++)
+      chunks.add(null);
+
+    // the failures are collected instead of thrown, so that no chunk is still accounting when the chunks are
+    // discarded; the chunks not started yet are skipped
+    AtomicReference<IOException> failure = new AtomicReference<>();
+    AtomicLong chunksBytes = new AtomicLong();
+    LongConsumer estimate = bytes -> {
+      chunksBytes.addAndGet(bytes);
+      memory.addEstimate(bytes);
+    };
+    context.parallelFor(chunks.size(), i -> {
+      if (failure.get() != null)
+        return;
+      try {
+        chunks.set(i, parseChunk(path, bounds[i], bounds[i + 1], estimate));
+      } catch (UncheckedIOException e) {
+        failure.compareAndSet(null, e.getCause());
+      }
+    });
+
+    if (failure.get() != null) {
+      // e.g. an alias to an anchor of another chunk: the file can be parsed only as a whole, the estimates of
+      // the chunks are given back before
+      chunks.clear();
+      memory.discardEstimate(chunksBytes.get());
+      try (InputStream fileStream = newInputStream(path)) {
+        ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
+        return readEntries(yamlReader, yamlReader.createParser(fileStream), memory::addEstimate);
+      }
+    }
+
+    Map<String, Object> entries = new LinkedHashMap<>();
+    for (Map<String, Object> chunk : chunks) {
+      if (chunk != null)
+        entries.putAll(chunk);
+    }
+    return entries;
+  }
+
+  private static Map<String, Object> parseChunk(Path path, long from, long to, LongConsumer estimate) {
+    // the chunks are parsed by the threads of the build pool
+    try {
+      return AccessController.doPrivileged((PrivilegedExceptionAction< Map<String, Object> >) () -> {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try (InputStream chunkStream = new ChunkInputStream(Channels.newInputStream(channel.position(from)), to - from)) {
+          ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
+          return readEntries(yamlReader, yamlReader.createParser(chunkStream), estimate);
+        } finally {
+          channel.close();
+        }
+      });
+    } catch (PrivilegedActionException e) {
+      throw new UncheckedIOException((IOException) e.getException());
+    }
+  }
+
+  // Reads the top level mapping entry by entry, so that a too big dictionary breaks before being fully read
+  private static Map<String, Object> readEntries(ObjectMapper yamlReader, JsonParser parser, LongConsumer estimate)
+      throws IOException {
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT)
+        throw new IOException("the dictionary is not a mapping");
+      Map<String, Object> entries = new LinkedHashMap<>();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String key = parser.getCurrentName();
+        parser.nextToken();
+        Object value = yamlReader.readValue(parser, Object.class);
+        estimate.accept(DictionaryMemory.sizeOfEntry(key, value));
+        entries.put(key, value);
+      }
+      return entries;
+    } finally {
+      parser.close();
+    }
+  }
+
+  // Returns the offsets of about n chunks of a block mapping of the given length: each chunk starts with a top
+  // level key. If the content is not a plain block mapping the only chunk is the whole content. The content is
+  // streamed once.
+  static long[] splitAtTopLevelKeys(InputStream content, long length, int n) throws IOException {
+    long chunkSize = Math.max(1, length / n);
+    List<Long> bounds = new ArrayList<>();
+    bounds.add(0L);
+    // a line starting at or after this offset with a top level key starts the next chunk
+    long next = chunkSize;
+    boolean lineStart = true;
+    byte[] buffer = new byte[8192];
+    long offset = 0;
+    for (int read; (read = content.read(buffer)) > 0; offset += read) {
+      for (int i = 0; i < read; i++) {
+        byte b = buffer[i];
+        // flow mappings, directives, documents markers and sequences can't be split
+        if (lineStart && (b == '{' || b == '[' || b == '%' || b == '-' || b == '.'))
+          return new long[] { 0, length };
+        if (lineStart && offset + i >= next && isTopLevelKey(b)) {
+          bounds.add(offset + i);
+          next = offset + i + chunkSize;
+        }
+        lineStart = b == '\n';
+      }
+    }
+    bounds.add(offset);
+    return bounds.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /**
+   * The bytes of a chunk of the file: the parser of the chunk stops at its end.
+   */
+  private static final class ChunkInputStream extends FilterInputStream {
+    private long remaining;
+
+    ChunkInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0)
+        return -1;
+      int b = in.read();
+      if (b >= 0)
+        remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0)
+        return -1;
+      int read = in.read(b, off, (int) Math.min(len, remaining));
+      if (read > 0)
+        remaining -= read;
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+  private static boolean isTopLevelKey(byte b) {
+    return b != ' ' && b != '\t' && b != '\r' && b != '\n' && b != '#' && b != '?' && b != ':';
+  }
+
+}
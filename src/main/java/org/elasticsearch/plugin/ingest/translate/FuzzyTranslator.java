@@ -0,0 +1,230 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.apache.lucene.util.automaton.Transition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * A string translator matching the keys within a number of edits (insertions, deletions, substitutions
+ * and transpositions) of the item, ignoring case.
+ *
+ * The keys are stored in a trie of code points and the lookup walks the trie together with the Levenshtein
+ * automaton of the item, visiting only the prefixes the automaton can accept: the cost depends on the item
+ * and on the number of edits rather than on the size of the dictionary.
+ */
+final class FuzzyTranslator extends EntryTranslator {
+  // The highest number of edits supported by the Levenshtein automata
+  static final int MAX_EDITS = LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE;
+
+  // The number of edits allowed by a lookup
+  private final int maxEdits;
+  // The trie of the case folded keys, in breadth first order: the children of the node n are the nodes
+  // from firstChild[n] to firstChild[n + 1] sorted by label, the label being the code point of the edge
+  // entering the node. The value of a node is the index in values, -1 if no key ends on the node.
+  private int[] firstChild;
+  private int[] labels;
+  private int[] valueOf;
+  private Object[] values;
+
+  // The dictionary is always loaded in background: the edits must be set before the first load
+  FuzzyTranslator(DictionarySource source, TranslatorContext context, int maxEdits)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, false);
+    if (maxEdits < 1 || maxEdits > MAX_EDITS)
+      throw new IllegalArgumentException("max_edits must be between 1 and " + MAX_EDITS + ": [" + maxEdits + "]");
+    this.maxEdits = maxEdits;
+  }
+
+
+  // Returns the value of the closest key (the first in key order among the equally close ones) or, with
+  // multiple values, the values of all the keys within max edits from the closest to the farthest
+  @Override
+  public Object lookup(String item, boolean retMultipleValue) {
+    String key = StringTranslator.fold(item);
+    rlock.lock();
+    try {
+      if (values == null)
+        return null;
+
+      List<Integer> matches = new ArrayList<>();
+      int exact = exactMatch(key);
+      if (exact >= 0) {
+        if (retMultipleValue == false)
+          return values[exact];
+        matches.add(exact);
+      }
+
+      LevenshteinAutomata automata = new LevenshteinAutomata(key, true);
+      for (int edits = 1; edits <= maxEdits; edits++) {
+        intersect(automata.toAutomaton(edits), 0, 0, matches);
+        if (retMultipleValue == false && matches.isEmpty() == false)
+          return values[matches.get(0)];
+      }
+
+      if (matches.isEmpty())
+        return null;
+      List<Object> multipleValue = new ArrayList<>(matches.size());
+      for (int match : matches)
+        multipleValue.add(values[match]);
+      return multipleValue;
+    } finally {
+      rlock.unlock();
+    }
+  }
+
+  private int exactMatch(String key) {
+    int node = 0;
+    for (int i = 0; i < key.length(); i += Character.charCount(key.codePointAt(i))) {
+      int child = Arrays.binarySearch(labels, firstChild[node], firstChild[node + 1], key.codePointAt(i));
+      if (child < 0)
+        return -1;
+      node = child;
+    }
+    return valueOf[node];
+  }
+
+  // Collects in key order the values of the keys accepted by the automaton, the ones already collected
+  // with fewer edits are skipped
+  private void intersect(Automaton automaton, int state, int node, List<Integer> matches) {
+    if (valueOf[node] >= 0 && automaton.isAccept(state) && matches.contains(valueOf[node]) == false)
+      matches.add(valueOf[node]);
+
+    int from = firstChild[node];
+    int to = firstChild[node + 1];
+    if (from == to)
+      return;
+    Transition transition = new Transition();
+    int transitions = automaton.initTransition(state, transition);
+    for (int i = 0; i < transitions; i++) {
+      automaton.getNextTransition(transition);
+      // the children whose label is in the range of the transition
+      int child = Arrays.binarySearch(labels, from, to, transition.min);
+      if (child < 0)
+        child = -child - 1;
+      for (; child < to && labels[child] <= transition.max; child++)
+        intersect(automaton, transition.dest, child, matches);
+    }
+  }
+
+  @Override
+  boolean foldsKeys() {
+    return true;
+  }
+
+  @Override
+  protected void loadDictionary(Map<String, Object> entries, DictionaryMemory memory) throws IOException {
+    Map.Entry<String, Object>[] items = entries.entrySet().toArray(new Map.Entry[0]);
+    String[] folded = new String[items.length];
+    context.parallelFor(items.length, i -> folded[i] = StringTranslator.fold(items[i].getKey()));
+
+    // the last of the keys equal ignoring case wins
+    Map<String, Object> dictionary = new LinkedHashMap<>();
+    for (int i = 0; i < items.length; i++)
+      dictionary.put(folded[i], items[i].getValue());
+    int[][] keys = new int[dictionary.size()][];
+    Object[] tmp_values = new Object[dictionary.size()];
+    Integer[] order = new Integer[dictionary.size()];
+    int size = 0, codePoints = 0;
+    for (Map.Entry<String, Object> entry : dictionary.entrySet()) {
+      keys[size] = entry.getKey().codePoints().toArray();
+      tmp_values[size] = entry.getValue();
+      order[size] = size;
+      codePoints += keys[size].length;
+      size++;
+    }
+    Arrays.sort(order, (a, b) -> Arrays.compare(keys[a], keys[b]));
+    int[][] sortedKeys = new int[size][];
+    Object[] sortedValues = new Object[size];
+    for (int i = 0; i < size; i++) {
+      sortedKeys[i] = keys[order[i]];
+      sortedValues[i] = tmp_values[order[i]];
+    }
+
+    // each node covers the range of the sorted keys sharing its prefix, its children are appended
+    // when it is visited
+    int capacity = codePoints + 1;
+    int[] tmp_firstChild = new int[capacity + 1];
+    int[] tmp_labels = new int[capacity];
+    int[] tmp_valueOf = new int[capacity];
+    int[] rangeFrom = new int[capacity];
+    int[] rangeTo = new int[capacity];
+    int[] depth = new int[capacity];
+    rangeTo[0] = size;
+    int nodes = 1;
+    for (int node = 0; node < nodes; node++) {
+      int lo = rangeFrom[node];
+      int hi = rangeTo[node];
+      int d = depth[node];
+      tmp_valueOf[node] = -1;
+      // a key ending on the node sorts before the longer ones
+      if (lo < hi && sortedKeys[lo].length == d)
+        tmp_valueOf[node] = lo++;
+      tmp_firstChild[node] = nodes;
+      while (lo < hi) {
+        int label = sortedKeys[lo][d];
+        int end = lo + 1;
+        while (end < hi && sortedKeys[end][d] == label)
+          end++;
+        tmp_labels[nodes] = label;
+        rangeFrom[nodes] = lo;
+        rangeTo[nodes] = end;
+        depth[nodes] = d + 1;
+        nodes++;
+        lo = end;
+      }
+    }
+    tmp_firstChild[nodes] = nodes;
+    tmp_firstChild = Arrays.copyOf(tmp_firstChild, nodes + 1);
+    tmp_labels = Arrays.copyOf(tmp_labels, nodes);
+    tmp_valueOf = Arrays.copyOf(tmp_valueOf, nodes);
+
+    memory.commit(RamUsageEstimator.sizeOf(tmp_firstChild) + RamUsageEstimator.sizeOf(tmp_labels) +
+                  RamUsageEstimator.sizeOf(tmp_valueOf) + DictionaryMemory.sizeOfArray(size));
+
+    wlock.lock();
+    try {
+      firstChild = tmp_firstChild;
+      labels = tmp_labels;
+      valueOf = tmp_valueOf;
+      values = sortedValues;
+    } finally {
+      wlock.unlock();
+    }
+
+    LOGGER.info("Fuzzy translator for [{}] has {} keys in a trie of {} nodes", source.getName(), size, nodes);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Entries for [{}] are:", source.getName());
+      for (int i = 0; i < size; i++)
+        LOGGER.debug("  - {}: {}", new String(sortedKeys[i], 0, sortedKeys[i].length), sortedValues[i]);
+    }
+  }
+
+}
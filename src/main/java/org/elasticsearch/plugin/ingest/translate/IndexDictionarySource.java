@@ -0,0 +1,186 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.action.admin.indices.stats.ShardStats;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.seqno.SeqNoStats;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+/**
+ * A dictionary stored in an Elasticsearch index: every document is an entry whose key is the value
+ * of {@code key_field}.
+ *
+ * The index is bulk fetched with a scroll only when its content changes, the change being detected
+ * through the max sequence number of the primary shards. The requests run as the system user, with the
+ * context of the thread stashed: the loads run on the loader pool and on the monitoring thread, on behalf of
+ * no user.
+ */
+final class IndexDictionarySource extends DictionarySource {
+  private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+  private static final int FETCH_SIZE = 1000;
+
+  private final Client client;
+  private final String index;
+  private final String keyField;
+  private final List<String> valueFields;
+
+  IndexDictionarySource(Client client, String index, String keyField, List<String> valueFields) {
+    this.client = client;
+    this.index = index;
+    this.keyField = keyField;
+    this.valueFields = valueFields;
+  }
+
+  @Override
+  String getName() {
+    return index + "{key_field=" + keyField + (valueFields == null ? "" : ", value_fields=" + valueFields) + "}";
+  }
+
+  @Override
+  boolean loadsInBackground() {
+    // the index may not be available yet and we must not block the cluster state applier
+    return true;
+  }
+
+  @Override
+  String checksum() {
+    IndicesStatsResponse stats;
+    try (ThreadContext.StoredContext ignored = stashSystemContext()) {
+      stats = client.admin().indices().prepareStats(index).clear().setDocs(true).get();
+    }
+    ShardStats[] shards = stats.getShards();
+    Arrays.sort(shards, Comparator.comparing(shard -> shard.getShardRouting().shardId()));
+
+    StringBuilder checksum = new StringBuilder();
+    for (ShardStats shard : shards) {
+      if (shard.getShardRouting().primary() == false)
+        continue;
+      SeqNoStats seqNoStats = shard.getSeqNoStats();
+      if (seqNoStats == null) {
+        throw new IllegalStateException(
+            "the shard " + shard.getShardRouting().shardId() + " of the index [" + index + "] is not started");
+      }
+      checksum.append(shard.getShardRouting().index().getUUID())
+              .append('/').append(shard.getShardRouting().getId())
+              .append(':').append(seqNoStats.getMaxSeqNo())
+              .append(';');
+    }
+    if (checksum.length() == 0) {
+      throw new IllegalStateException("the index [" + index + "] has no active primary shards");
+    }
+    return checksum.toString();
+  }
+
+  @Override
+  Map<String, Object> load(TranslatorContext context, DictionaryMemory memory) throws IOException {
+    try (ThreadContext.StoredContext ignored = stashSystemContext()) {
+      return fetch(memory);
+    }
+  }
+
+  private Map<String, Object> fetch(DictionaryMemory memory) {
+    // makes visible all the changes counted by the checksum
+    client.admin().indices().prepareRefresh(index).get();
+
+    String[] includes = null;
+    if (valueFields != null) {
+      includes = new String[valueFields.size() + 1];
+      includes[0] = keyField;
+      for (int i = 0; i < valueFields.size(); i++)
+        includes[i + 1] = valueFields.get(i);
+    }
+
+    Map<String, Object> entries = new LinkedHashMap<>();
+    SearchResponse response = client.prepareSearch(index)
+                                    .setScroll(SCROLL_KEEP_ALIVE)
+                                    .setSize(FETCH_SIZE)
+                                    .addSort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC)
+                                    .setFetchSource(includes, null)
+                                    .get();
+    try {
+      while (response.getHits().getHits().length > 0) {
+        for (SearchHit hit : response.getHits().getHits())
+          addEntries(entries, hit.getSourceAsMap(), memory);
+        response = client.prepareSearchScroll(response.getScrollId()).setScroll(SCROLL_KEEP_ALIVE).get();
+      }
+    } finally {
+      if (response.getScrollId() != null)
+        client.prepareClearScroll().addScrollId(response.getScrollId()).get();
+    }
+    return entries;
+  }
+
+  // Clears the headers and the user of the thread, whatever request used it before, until the context is restored
+  private ThreadContext.StoredContext stashSystemContext() {
+    ThreadContext threadContext = client.threadPool().getThreadContext();
+    ThreadContext.StoredContext stored = threadContext.stashContext();
+    threadContext.markAsSystemContext();
+    return stored;
+  }
+
+  private void addEntries(Map<String, Object> entries, Map<String, Object> source, DictionaryMemory memory) {
+    Object key = XContentMapValues.extractValue(keyField, source);
+    if (key == null)
+      return;
+
+    Object value;
+    if (valueFields == null) {
+      value = source;
+    } else {
+      Map<String, Object> fields = new LinkedHashMap<>();
+      for (String valueField : valueFields) {
+        Object fieldValue = XContentMapValues.extractValue(valueField, source);
+        if (fieldValue != null)
+          fields.put(valueField, fieldValue);
+      }
+      value = fields;
+    }
+
+    // a multi-valued key field gives an entry for each value
+    if (key instanceof Collection) {
+      for (Object item : (Collection<?>) key)
+        addEntry(entries, item.toString(), value, memory);
+    } else {
+      addEntry(entries, key.toString(), value, memory);
+    }
+  }
+
+  private static void addEntry(Map<String, Object> entries, String key, Object value, DictionaryMemory memory) {
+    memory.addEstimate(DictionaryMemory.sizeOfEntry(key, value));
+    entries.put(key, value);
+  }
+
+}
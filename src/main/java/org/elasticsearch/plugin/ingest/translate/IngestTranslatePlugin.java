@@ -17,17 +17,55 @@
 
 package org.elasticsearch.plugin.ingest.translate;
 
+import org.apache.lucene.util.SetOnce;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.breaker.CircuitBreaker;
 import org.elasticsearch.common.collect.MapBuilder;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
 import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.indices.breaker.BreakerSettings;
 import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.CircuitBreakerPlugin;
 import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.repositories.RepositoriesService;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import com.cronutils.model.Cron;
 import com.cronutils.model.definition.CronDefinitionBuilder;
@@ -36,15 +74,116 @@ import static com.cronutils.model.CronType.QUARTZ;
 
 
 
-public class IngestTranslatePlugin extends Plugin implements IngestPlugin {
+public class IngestTranslatePlugin extends Plugin implements IngestPlugin, ActionPlugin, CircuitBreakerPlugin {
+  // The thread pool where the dictionaries are loaded, sized by ingest.translate.loader.size
+  static final String LOADER_THREAD_POOL_NAME = "ingest_translate_loader";
+
+  // The circuit breaker accounting the heap of all the dictionaries of the node
+  static final String BREAKER_NAME = "ingest_translate";
+
+  private volatile TranslateProcessor.Factory factory;
+  // The functions of the scripts, bound by the painless extension before the processors are created
+  private final TranslateScriptFunctions scriptFunctions = new TranslateScriptFunctions(() -> factory);
+  private ForkJoinPool buildPool;
+  private final SetOnce<CircuitBreaker> breaker = new SetOnce<>();
 
   private final Setting<String> CRON_CHECK = new Setting<>("ingest.translate.cron_check", "* 0 * * * ?",
                                                            Function.identity(), Setting.Property.NodeScope);
+  // How many threads parse and build a single dictionary, 1 to build it only on the loader thread
+  static final Setting<Integer> BUILD_PARALLELISM = new Setting<>("ingest.translate.build.parallelism",
+      s -> Integer.toString(Math.max(1, EsExecutors.allocatedProcessors(s) / 2)),
+      s -> Setting.parseInt(s, 1, "ingest.translate.build.parallelism"), Setting.Property.NodeScope);
+
+  // The heap budget of all the dictionaries of the node
+  static final Setting<ByteSizeValue> BREAKER_LIMIT =
+      Setting.memorySizeSetting("ingest.translate.breaker.limit", "10%", Setting.Property.NodeScope);
+  // The heap budget of a single dictionary, -1 for no limit other than the node one
+  static final Setting<ByteSizeValue> DICTIONARY_MAX_SIZE =
+      Setting.byteSizeSetting("ingest.translate.dictionary.max_size", new ByteSizeValue(-1), Setting.Property.NodeScope);
+
+  // The bounds of the cache of the dictionaries named by the documents
+  static final Setting<Integer> DYNAMIC_MAX_DICTIONARIES =
+      Setting.intSetting("ingest.translate.dynamic.max_dictionaries", 100, 1, Setting.Property.NodeScope);
+  static final Setting<ByteSizeValue> DYNAMIC_MAX_SIZE =
+      Setting.memorySizeSetting("ingest.translate.dynamic.max_size", "5%", Setting.Property.NodeScope);
+  static final Setting<TimeValue> DYNAMIC_EXPIRE_AFTER_ACCESS =
+      Setting.positiveTimeSetting("ingest.translate.dynamic.expire_after_access", TimeValue.timeValueMinutes(30),
+                                  Setting.Property.NodeScope);
+
+  // The number of live changes of a dictionary that triggers the rewrite of its file
+  static final Setting<Integer> JOURNAL_COMPACT_THRESHOLD =
+      Setting.intSetting("ingest.translate.journal.compact_threshold", 10000, 1, Setting.Property.NodeScope);
+
+  // The sketches of the looked up keys: one lookup in sample_interval is counted in the top keys
+  static final Setting<Boolean> SKETCH_ENABLED =
+      Setting.boolSetting("ingest.translate.sketch.enabled", false, Setting.Property.NodeScope);
+  static final Setting<Integer> SKETCH_SAMPLE_INTERVAL =
+      Setting.intSetting("ingest.translate.sketch.sample_interval", 100, 1, Setting.Property.NodeScope);
+  static final Setting<Integer> SKETCH_TOP_KEYS =
+      Setting.intSetting("ingest.translate.sketch.top_keys", 10, 1, 1000, Setting.Property.NodeScope);
+
+  TranslateScriptFunctions getScriptFunctions() {
+    return scriptFunctions;
+  }
 
   @Override
   public List<Setting<?>> getSettings() {
-      return Arrays.asList(CRON_CHECK);
+      return Arrays.asList(CRON_CHECK, BUILD_PARALLELISM, BREAKER_LIMIT, DICTIONARY_MAX_SIZE,
+                           DYNAMIC_MAX_DICTIONARIES, DYNAMIC_MAX_SIZE, DYNAMIC_EXPIRE_AFTER_ACCESS,
+                           JOURNAL_COMPACT_THRESHOLD, SKETCH_ENABLED, SKETCH_SAMPLE_INTERVAL, SKETCH_TOP_KEYS);
+  }
+
+  @Override
+  public BreakerSettings getCircuitBreaker(Settings settings) {
+    return new BreakerSettings(BREAKER_NAME, BREAKER_LIMIT.get(settings).getBytes(), 1.0,
+                               CircuitBreaker.Type.MEMORY, CircuitBreaker.Durability.PERMANENT);
+  }
+
+  @Override
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    breaker.set(circuitBreaker);
+  }
+
+  @Override
+  public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+    int size = Math.min(4, EsExecutors.allocatedProcessors(settings));
+    return Collections.singletonList(
+        new FixedExecutorBuilder(settings, LOADER_THREAD_POOL_NAME, size, -1, "ingest.translate.loader"));
   }
+
+  @Override
+  public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+    return Collections.singletonList(
+        new ActionHandler<>(TranslateEntriesAction.INSTANCE, TransportTranslateEntriesAction.class));
+  }
+
+  // The processor factory is created with the ingest service, before the components: it is bound for the
+  // transport actions
+  @Override
+  public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                             ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                             NamedXContentRegistry xContentRegistry, Environment environment,
+                                             NodeEnvironment nodeEnvironment,
+                                             NamedWriteableRegistry namedWriteableRegistry,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<RepositoriesService> repositoriesServiceSupplier) {
+    if (factory == null)
+      throw new IllegalStateException("the translate processor factory must be created before the components");
+    return Collections.singletonList(factory);
+  }
+
+  @Override
+  public List<RestHandler> getRestHandlers(Settings settings, RestController restController,
+                                           ClusterSettings clusterSettings, IndexScopedSettings indexScopedSettings,
+                                           SettingsFilter settingsFilter,
+                                           IndexNameExpressionResolver indexNameExpressionResolver,
+                                           Supplier<DiscoveryNodes> nodesInCluster) {
+    return Arrays.asList(new RestTranslateStatsAction(() -> factory),
+                         new RestTranslateValidateAction(() -> factory),
+                         new RestTranslateEntriesAction(),
+                         new RestTranslateSketchesAction(() -> factory));
+  }
+
   @Override
   public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
     Path translateConfigDirectory = parameters.env.configFile().resolve("ingest-translate");
@@ -54,9 +193,49 @@ public class IngestTranslatePlugin extends Plugin implements IngestPlugin {
     CronParser unixCronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(QUARTZ));
     Cron parsedUnixCronExpression = unixCronParser.parse(cronCheck);
 
+    int parallelism = BUILD_PARALLELISM.get(parameters.env.settings());
+    if (parallelism > 1)
+      buildPool = new ForkJoinPool(parallelism, new BuildThreadFactory(), null, false);
+
+    Executor loader = parameters.client.threadPool().executor(LOADER_THREAD_POOL_NAME);
+    TranslatorCache dynamicTranslators =
+        new TranslatorCache(DYNAMIC_MAX_DICTIONARIES.get(parameters.env.settings()),
+                            DYNAMIC_MAX_SIZE.get(parameters.env.settings()).getBytes(),
+                            DYNAMIC_EXPIRE_AFTER_ACCESS.get(parameters.env.settings()).millis(), loader);
+    factory = new TranslateProcessor.Factory(translateConfigDirectory,
+                                             new TranslatorContext(parsedUnixCronExpression, buildPool, breaker::get,
+                                                                   DICTIONARY_MAX_SIZE.get(parameters.env.settings()).getBytes(),
+                                                                   JOURNAL_COMPACT_THRESHOLD.get(parameters.env.settings()),
+                                                                   SKETCH_ENABLED.get(parameters.env.settings()) ?
+                                                                       SKETCH_SAMPLE_INTERVAL.get(parameters.env.settings()) : 0,
+                                                                   SKETCH_TOP_KEYS.get(parameters.env.settings())),
+                                             parameters.client, loader, parameters.scriptService, dynamicTranslators);
     return MapBuilder.<String, Processor.Factory>newMapBuilder()
-            .put(TranslateProcessor.TYPE, new TranslateProcessor.Factory(translateConfigDirectory, parsedUnixCronExpression))
+            .put(TranslateProcessor.TYPE, factory)
             .immutableMap();
   }
 
+  @Override
+  public void close() throws IOException {
+    TranslateProcessor.Factory current = factory;
+    if (current != null) {
+      // the scripts can't reach the closed factory
+      factory = null;
+      current.close();
+    }
+    if (buildPool != null)
+      buildPool.shutdownNow();
+  }
+
+  private static final class BuildThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Override
+    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("ingest-translate-build-" + counter.incrementAndGet());
+      return thread;
+    }
+  }
+
 }
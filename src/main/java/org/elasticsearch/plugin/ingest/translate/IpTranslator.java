@@ -17,101 +17,185 @@
 
 package org.elasticsearch.plugin.ingest.translate;
 
+import org.apache.lucene.util.RamUsageEstimator;
+
 import java.nio.file.Path;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
-import java.io.InputStream;
 import java.io.IOException;
 
-import org.elasticsearch.SpecialPermission;
-import java.security.AccessController;
-import java.security.PrivilegedExceptionAction;
-import java.security.PrivilegedActionException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.apache.commons.net.util.SubnetUtils;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeSet;
 import java.security.NoSuchAlgorithmException;
 import com.cronutils.model.Cron;
 
 
 
-final class IpTranslator extends Translator {
-  // The dictionary for the Translator
-  private Map<SubnetUtils, Object> dictionary;
+/**
+ * A translator whose keys are IPv4 subnets or addresses.
+ *
+ * The subnets split the address space in ranges matched by the same subnets: a lookup is a binary search of
+ * the range of the address, whose first value and whose list of all the values are built with the dictionary.
+ * The address is parsed without exceptions and a lookup allocates nothing.
+ */
+final class IpTranslator extends EntryTranslator {
+  // The dictionary for the Translator: the first address of each range, as unsigned int, with the value of the
+  // first matching subnet in source order and the immutable list of the values of all the matching subnets.
+  // The values are null for the ranges out of any subnet.
+  private long[] starts;
+  private Object[] firstValues;
+  private List<Object>[] allValues;
 
   IpTranslator(Path dictionaryPath, Cron cron)  throws IOException, NoSuchAlgorithmException {
-    super(dictionaryPath, cron);
-    if (dictionary == null) {
+    this(new FileDictionarySource(dictionaryPath), new TranslatorContext(cron), true);
+  }
+
+  IpTranslator(DictionarySource source, TranslatorContext context, boolean loadNow)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, loadNow);
+    if (starts == null && loadNow) {
       throw new IllegalStateException(
-          "Unable to create IpTranslator for [" + dictionaryPath + "]");
-    } else
-      LOGGER.info("Translator for [{}] created with {} entries", dictionaryPath.getFileName().toString(), dictionary.size());
+          "Unable to create IpTranslator for [" + source.getName() + "]");
+    } else if (starts != null)
+      LOGGER.info("Translator for [{}] created with {} ranges", source.getName(), starts.length);
   }
 
 
   @Override
   public Object lookup(String item, boolean retMultipleValue) {
-    List<Object> multipleValue = new ArrayList<Object>();
+    return lookup((CharSequence) item, retMultipleValue);
+  }
+
+  @Override
+  public Object lookup(CharSequence item, boolean retMultipleValue) {
+    long address = parseAddress(item);
+    if (address < 0)
+      return null;
     rlock.lock();
     try {
-      if (dictionary == null)
+      if (starts == null)
         return null;
-
-      for (Map.Entry<SubnetUtils, Object> entry : dictionary.entrySet()) {
-        if (entry.getKey().getInfo().isInRange(item))
-          if (!retMultipleValue)
-            return entry.getValue();
-          else
-            multipleValue.add(entry.getValue());
-      }
-
-      if (!retMultipleValue || multipleValue.size() == 0)
+      int range = Arrays.binarySearch(starts, address);
+      if (range < 0)
+        range = -range - 2;
+      if (range < 0)
         return null;
-      return multipleValue;
-    } catch (IllegalArgumentException e) {
-      // in case item is not an ip
-      return null;
+      return retMultipleValue ? allValues[range] : firstValues[range];
     } finally {
       rlock.unlock();
     }
   }
 
   @Override
-  protected void loadDictionary() throws IOException {
+  protected void loadDictionary(Map<String, Object> entries, DictionaryMemory memory) throws IOException {
+    Map.Entry<String, Object>[] items = entries.entrySet().toArray(new Map.Entry[0]);
+    long[] lows = new long[items.length];
+    long[] highs = new long[items.length];
+    context.parallelFor(items.length, i -> {
+      SubnetUtils subnet = new SubnetUtils(cidr(items[i].getKey()));
+      subnet.setInclusiveHostCount(true);
+      SubnetUtils.SubnetInfo info = subnet.getInfo();
+      lows[i] = info.asInteger(info.getLowAddress()) & 0xFFFFFFFFL;
+      highs[i] = info.asInteger(info.getHighAddress()) & 0xFFFFFFFFL;
+    });
+
+    // the bounds of the ranges, where a subnet starts or ends
+    long[] bounds = new long[items.length * 2];
+    for (int i = 0; i < items.length; i++) {
+      bounds[2 * i] = lows[i];
+      bounds[2 * i + 1] = highs[i] + 1;
+    }
+    Arrays.sort(bounds);
+    int ranges = 0;
+    for (int i = 0; i < bounds.length; i++) {
+      if (i == 0 || bounds[i] != bounds[i - 1])
+        bounds[ranges++] = bounds[i];
+    }
+    long[] tmp_starts = Arrays.copyOf(bounds, ranges);
+
+    // the subnets sorted by start and by end, swept in address order
+    Integer[] byLow = new Integer[items.length];
+    Integer[] byHigh = new Integer[items.length];
+    for (int i = 0; i < items.length; i++) {
+      byLow[i] = i;
+      byHigh[i] = i;
+    }
+    Arrays.sort(byLow, (a, b) -> Long.compare(lows[a], lows[b]));
+    Arrays.sort(byHigh, (a, b) -> Long.compare(highs[a], highs[b]));
+
+    Object[] tmp_firstValues = new Object[ranges];
+    List<Object>[] tmp_allValues = new List[ranges];
+    TreeSet<Integer> matching = new TreeSet<>();
+    long bytes = RamUsageEstimator.sizeOf(tmp_starts) + 2 * DictionaryMemory.sizeOfArray(ranges);
+    for (int r = 0, nextLow = 0, nextHigh = 0; r < ranges; r++) {
+      while (nextHigh < items.length && highs[byHigh[nextHigh]] + 1 <= tmp_starts[r])
+        matching.remove(byHigh[nextHigh++]);
+      while (nextLow < items.length && lows[byLow[nextLow]] <= tmp_starts[r])
+        matching.add(byLow[nextLow++]);
+      if (matching.isEmpty())
+        continue;
+      Object[] values = new Object[matching.size()];
+      int v = 0;
+      for (int i : matching)
+        values[v++] = items[i].getValue();
+      tmp_firstValues[r] = values[0];
+      tmp_allValues[r] = Collections.unmodifiableList(Arrays.asList(values));
+      bytes += 2 * RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + DictionaryMemory.sizeOfArray(values.length);
+    }
+
+    memory.commit(bytes);
+
     wlock.lock();
     try {
-      SpecialPermission.check();
-      Map<SubnetUtils, Object> tmp_dictionary;
-      try {
-        tmp_dictionary = AccessController.doPrivileged((PrivilegedExceptionAction< Map<SubnetUtils, Object> >) () -> {
-          InputStream fileStream = Files.newInputStream(dictionaryPath, StandardOpenOption.READ);
-          ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
-          return yamlReader.readValue(fileStream, new TypeReference<Map<SubnetUtils,Object>>(){});
-        });
-      } catch (PrivilegedActionException e) {
-        // e.getException() should be an instance of IOException
-        // as only checked exceptions will be wrapped in a
-        // PrivilegedActionException.
-        throw (IOException) e.getException();
-      }
+      starts = tmp_starts;
+      firstValues = tmp_firstValues;
+      allValues = tmp_allValues;
+    } finally {
+      wlock.unlock();
+    }
 
-      for (Map.Entry<SubnetUtils, Object> entry : tmp_dictionary.entrySet())
-        entry.getKey().setInclusiveHostCount(true);
-      dictionary = tmp_dictionary;
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Entries for [{}] are:", source.getName());
+      for (Map.Entry<String, Object> item : items) {
+        LOGGER.debug("  - {}: {}", item.getKey(), item.getValue());
+      }
+    }
+  }
 
-      if (LOGGER.isDebugEnabled()) {
-        LOGGER.debug("Entries for [{}] are:",dictionaryPath.getFileName().toString());
-        for (Map.Entry<SubnetUtils, Object> entry : dictionary.entrySet()) {
-          LOGGER.debug("  - {}: {}", entry.getKey().getInfo().getCidrSignature(), entry.getValue());
-        }
+  // The dotted IPv4 address as unsigned int, -1 if the string is not an address.
+  // Each part has 1 to 3 digits, as for SubnetUtils.
+  static long parseAddress(CharSequence s) {
+    long address = 0;
+    int part = 0;
+    int digits = 0;
+    int parts = 1;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c >= '0' && c <= '9' && digits < 3) {
+        part = part * 10 + (c - '0');
+        digits++;
+      } else if (c == '.' && digits > 0 && parts < 4) {
+        if (part > 255)
+          return -1;
+        address = (address << 8) | part;
+        part = 0;
+        digits = 0;
+        parts++;
+      } else {
+        return -1;
       }
-    } finally {
-      wlock.unlock();
     }
+    if (parts < 4 || digits == 0 || part > 255)
+      return -1;
+    return (address << 8) | part;
+  }
+
+  // The cidr notation of a key: a bare address, without prefix length, is a single host subnet. This is a change of
+  // its own: the keys used to be only in cidr notation, a bare address failed the load.
+  static String cidr(String key) {
+    return key.indexOf('/') < 0 ? key + "/32" : key;
   }
 
 }
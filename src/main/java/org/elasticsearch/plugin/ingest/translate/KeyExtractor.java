@@ -0,0 +1,135 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+
+
+/**
+ * Extracts the key from the value of the field, set by {@code key_pattern}: the first group of a regular
+ * expression, or the text after a delimiter and/or before another one. The key is a view of the value,
+ * the translators that don't compare the keys as strings read it without copying it.
+ */
+abstract class KeyExtractor {
+
+  // The key in the value, null if the value has no key
+  abstract CharSequence extract(String value);
+
+  // The first group of the first match of the regular expression
+  static KeyExtractor ofPattern(String regex) {
+    Pattern pattern;
+    try {
+      pattern = Pattern.compile(regex);
+    } catch (PatternSyntaxException e) {
+      throw new IllegalArgumentException("[" + regex + "] is not a valid regular expression: " + e.getDescription());
+    }
+    if (pattern.matcher("").groupCount() < 1)
+      throw new IllegalArgumentException("[" + regex + "] has no group capturing the key");
+    return new KeyExtractor() {
+      @Override
+      CharSequence extract(String value) {
+        Matcher matcher = pattern.matcher(value);
+        if (matcher.find() == false || matcher.start(1) < 0)
+          return null;
+        return span(value, matcher.start(1), matcher.end(1));
+      }
+
+      @Override
+      public String toString() {
+        return regex;
+      }
+    };
+  }
+
+  // The text after the first occurrence of the after delimiter, if set, up to the first following occurrence
+  // of the before delimiter or, if it doesn't occur, up to the end of the value
+  static KeyExtractor ofDelimiters(String after, String before) {
+    if (after == null && before == null)
+      throw new IllegalArgumentException("one of [after] and [before] is required");
+    if ((after != null && after.isEmpty()) || (before != null && before.isEmpty()))
+      throw new IllegalArgumentException("the delimiters can't be empty");
+    return new KeyExtractor() {
+      @Override
+      CharSequence extract(String value) {
+        int start = 0;
+        if (after != null) {
+          start = value.indexOf(after);
+          if (start < 0)
+            return null;
+          start += after.length();
+        }
+        int end = before == null ? -1 : value.indexOf(before, start);
+        return span(value, start, end < 0 ? value.length() : end);
+      }
+
+      @Override
+      public String toString() {
+        return "after [" + after + "] before [" + before + "]";
+      }
+    };
+  }
+
+  private static CharSequence span(String value, int start, int end) {
+    if (start == 0 && end == value.length())
+      return value;
+    return new Span(value, start, end);
+  }
+
+  /**
+   * A part of a string, not copied.
+   */
+  static final class Span implements CharSequence {
+    private final String value;
+    private final int start;
+    private final int end;
+
+    Span(String value, int start, int end) {
+      this.value = value;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int length() {
+      return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= end - start)
+        throw new IndexOutOfBoundsException("index " + index + " out of [0, " + (end - start) + ")");
+      return value.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+      if (from < 0 || from > to || to > end - start)
+        throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") out of [0, " + (end - start) + ")");
+      return new Span(value, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+      return value.substring(start, end);
+    }
+  }
+
+}
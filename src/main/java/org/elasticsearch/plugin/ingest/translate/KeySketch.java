@@ -0,0 +1,216 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+
+/**
+ * The sketches of the keys looked up in a dictionary, enabled by {@code ingest.translate.sketch.enabled}: the keys
+ * with the most hits and the most misses, and the number of distinct keys missed.
+ *
+ * One lookup in {@code sample_interval} is counted, the others cost a random number: the sampled lookups update
+ * the top keys, Space-Saving summaries whose counts are scaled back by the interval, and the sampled misses a
+ * HyperLogLog of the distinct keys missed. The key is hashed as it is looked up, without being copied, and its
+ * hash picks the stripe of the summaries that counts it, so the lookups of different keys rarely contend.
+ */
+final class KeySketch {
+  // The precision of the HyperLogLog: 2^12 registers, a standard error of about 1.6%
+  private static final int PRECISION = 12;
+  private static final int REGISTERS = 1 << PRECISION;
+  // The stripes of the top keys, a power of two
+  private static final int STRIPES = 16;
+
+  private final int sampleInterval;
+  private final int topKeys;
+  // The top keys of each stripe, a key is always counted by the stripe of its hash
+  private final TopKeys[] hits = new TopKeys[STRIPES];
+  private final TopKeys[] misses = new TopKeys[STRIPES];
+  // The highest rank seen by each register of the HyperLogLog
+  private final AtomicIntegerArray registers = new AtomicIntegerArray(REGISTERS);
+
+  KeySketch(int sampleInterval, int topKeys) {
+    this.sampleInterval = sampleInterval;
+    this.topKeys = topKeys;
+    // each stripe keeps more keys than reported, so the reported ones are accurate
+    for (int i = 0; i < STRIPES; i++) {
+      hits[i] = new TopKeys(topKeys * 4);
+      misses[i] = new TopKeys(topKeys * 4);
+    }
+  }
+
+  // The keys of a case-insensitive translator are folded, only once sampled, so that its equal keys are counted as one
+  void record(Object key, boolean hit, boolean fold) {
+    if (sampleInterval > 1 && ThreadLocalRandom.current().nextInt(sampleInterval) != 0)
+      return;
+    CharSequence chars = key instanceof CharSequence ? (CharSequence) key : toString(key);
+    if (fold)
+      chars = StringTranslator.fold(chars);
+    int hash = PartitionedTranslator.murmur3(chars);
+    if (hit == false)
+      addDistinctMiss(hash);
+    (hit ? hits : misses)[hash & (STRIPES - 1)].add(chars);
+  }
+
+  // The composite keys are reported as the list of their components
+  private static String toString(Object key) {
+    if (key instanceof Object[])
+      return Arrays.toString((Object[]) key);
+    return key.toString();
+  }
+
+  private void addDistinctMiss(int hash) {
+    int register = hash >>> (32 - PRECISION);
+    // the rank is the position of the first 1 in the other bits, the last one is set to bound it
+    int rank = Integer.numberOfLeadingZeros((hash << PRECISION) | (1 << (PRECISION - 1))) + 1;
+    int current = registers.get(register);
+    while (rank > current && registers.compareAndSet(register, current, rank) == false)
+      current = registers.get(register);
+  }
+
+  // The estimate of the distinct keys of the sampled misses: all the keys missed if every lookup is sampled,
+  // a lower bound otherwise
+  long distinctMisses() {
+    double sum = 0;
+    int zeros = 0;
+    for (int i = 0; i < REGISTERS; i++) {
+      int rank = registers.get(i);
+      sum += 1.0 / (1L << rank);
+      if (rank == 0)
+        zeros++;
+    }
+    double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+    double estimate = alpha * REGISTERS * REGISTERS / sum;
+    // linear counting is more accurate for the small cardinalities, the hash collisions bias the large ones
+    if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+      estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+    } else if (estimate > (1L << 32) / 30.0) {
+      estimate = -(double) (1L << 32) * Math.log(1 - estimate / (1L << 32));
+    }
+    return Math.round(estimate);
+  }
+
+  int getSampleInterval() {
+    return sampleInterval;
+  }
+
+  // The estimated lookups that hit and missed the dictionary
+  long hits() {
+    return total(hits) * sampleInterval;
+  }
+
+  long misses() {
+    return total(misses) * sampleInterval;
+  }
+
+  // The keys with the most hits, from the most frequent. Each one has its estimated count and the maximum
+  // overestimate of the count.
+  List<Map<String, Object>> topHits() {
+    return top(hits);
+  }
+
+  List<Map<String, Object>> topMisses() {
+    return top(misses);
+  }
+
+  private static long total(TopKeys[] stripes) {
+    long total = 0;
+    for (TopKeys stripe : stripes)
+      total += stripe.total();
+    return total;
+  }
+
+  // The stripes count distinct keys: their top keys are merged as they are
+  private List<Map<String, Object>> top(TopKeys[] stripes) {
+    List<Map<String, Object>> top = new ArrayList<>();
+    for (TopKeys stripe : stripes)
+      top.addAll(stripe.top(topKeys, sampleInterval));
+    top.sort((a, b) -> Long.compare((Long) b.get("count"), (Long) a.get("count")));
+    return top.size() > topKeys ? new ArrayList<>(top.subList(0, topKeys)) : top;
+  }
+
+  /**
+   * The Space-Saving summary of the most frequent keys: when it is full, a new key replaces the key with the
+   * lowest count and inherits the count as its error. Only the sampled lookups of the keys of its stripe update
+   * it, under its monitor.
+   */
+  private static final class TopKeys {
+    private final int capacity;
+    // The count and the error of each key kept
+    private final Map<String, long[]> counters = new HashMap<>();
+    private long total;
+
+    TopKeys(int capacity) {
+      this.capacity = capacity;
+    }
+
+    synchronized void add(CharSequence chars) {
+      total++;
+      // a view of a value, as the extracted keys, is copied to find it in the map
+      String key = chars.toString();
+      long[] counter = counters.get(key);
+      if (counter != null) {
+        counter[0]++;
+        return;
+      }
+      if (counters.size() < capacity) {
+        counters.put(key, new long[] { 1, 0 });
+        return;
+      }
+
+      Iterator<Map.Entry<String, long[]>> it = counters.entrySet().iterator();
+      Map.Entry<String, long[]> min = it.next();
+      while (it.hasNext()) {
+        Map.Entry<String, long[]> entry = it.next();
+        if (entry.getValue()[0] < min.getValue()[0])
+          min = entry;
+      }
+      long minCount = min.getValue()[0];
+      counters.remove(min.getKey());
+      counters.put(key, new long[] { minCount + 1, minCount });
+    }
+
+    synchronized long total() {
+      return total;
+    }
+
+    synchronized List<Map<String, Object>> top(int size, int scale) {
+      List<Map.Entry<String, long[]>> entries = new ArrayList<>(counters.entrySet());
+      entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+      List<Map<String, Object>> top = new ArrayList<>(Math.min(size, entries.size()));
+      for (Map.Entry<String, long[]> entry : entries.subList(0, Math.min(size, entries.size()))) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("key", entry.getKey());
+        item.put("count", entry.getValue()[0] * scale);
+        item.put("error", entry.getValue()[1] * scale);
+        top.add(item);
+      }
+      return top;
+    }
+  }
+
+}
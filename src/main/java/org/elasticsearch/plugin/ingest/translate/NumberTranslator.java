@@ -0,0 +1,285 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * A translator whose keys are integers (e.g. ports, VLAN ids, ASNs, event ids), written in decimal in the
+ * dictionary.
+ *
+ * The keys are stored in an open addressing hash table of primitive longs: a lookup of a number read from the
+ * document is a probe of a long[], without boxing nor strings. Strings are parsed as decimal integers.
+ */
+final class NumberTranslator extends EntryTranslator {
+  // The dictionary for the Translator: the free slots have the key 0, whose value is kept aside
+  private long[] keys;
+  private Object[] values;
+  private Object zeroValue;
+  // The used slots, the live changes keep the table at most half full
+  private int size;
+
+  NumberTranslator(DictionarySource source, TranslatorContext context, boolean loadNow)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, loadNow);
+    if (keys == null && loadNow) {
+      throw new IllegalStateException(
+          "Unable to create NumberTranslator for [" + source.getName() + "]");
+    }
+  }
+
+
+  @Override
+  public Object lookup(String item, boolean retMultipleValue) {
+    return lookup((CharSequence) item, retMultipleValue);
+  }
+
+  @Override
+  public Object lookup(CharSequence item, boolean retMultipleValue) {
+    if (isInteger(item) == false)
+      return null;
+    return lookup(parseInteger(item));
+  }
+
+  // Integral numbers and the floating point ones without a fractional part are matched
+  Object lookup(Number item, boolean retMultipleValue) {
+    if (item instanceof Long || item instanceof Integer || item instanceof Short || item instanceof Byte)
+      return lookup(item.longValue());
+    double value = item.doubleValue();
+    if (value != Math.rint(value) || value < Long.MIN_VALUE || value >= 0x1p63)
+      return null;
+    return lookup((long) value);
+  }
+
+  Object lookup(long item) {
+    rlock.lock();
+    try {
+      if (keys == null)
+        return null;
+      if (item == 0)
+        return zeroValue;
+      int mask = keys.length - 1;
+      for (int slot = hash(item) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+        if (keys[slot] == item)
+          return values[slot];
+      }
+      return null;
+    } finally {
+      rlock.unlock();
+    }
+  }
+
+  @Override
+  protected void loadDictionary(Map<String, Object> entries, DictionaryMemory memory) throws IOException {
+    Map.Entry<String, Object>[] items = entries.entrySet().toArray(new Map.Entry[0]);
+    long[] itemKeys = new long[items.length];
+    context.parallelFor(items.length, i -> {
+      String key = items[i].getKey();
+      if (isInteger(key) == false)
+        throw new IllegalArgumentException("the key [" + key + "] of [" + source.getName() + "] is not an integer");
+      itemKeys[i] = parseInteger(key);
+    });
+
+    // at most half full, the last of the equal keys wins
+    int capacity = DictionaryMemory.tableCapacity(items.length, source.getName());
+    long[] tmp_keys = new long[capacity];
+    Object[] tmp_values = new Object[capacity];
+    boolean tmp_hasZeroKey = false;
+    Object tmp_zeroValue = null;
+    int tmp_size = 0;
+    for (int i = 0; i < items.length; i++) {
+      if (itemKeys[i] == 0) {
+        tmp_hasZeroKey = true;
+        tmp_zeroValue = items[i].getValue();
+        continue;
+      }
+      int slot = hash(itemKeys[i]) & (capacity - 1);
+      while (tmp_keys[slot] != 0 && tmp_keys[slot] != itemKeys[i])
+        slot = (slot + 1) & (capacity - 1);
+      if (tmp_keys[slot] == 0)
+        tmp_size++;
+      tmp_keys[slot] = itemKeys[i];
+      tmp_values[slot] = items[i].getValue();
+    }
+
+    memory.commit(RamUsageEstimator.sizeOf(tmp_keys) + DictionaryMemory.sizeOfArray(capacity));
+
+    wlock.lock();
+    try {
+      keys = tmp_keys;
+      values = tmp_values;
+      zeroValue = tmp_zeroValue;
+      size = tmp_size;
+    } finally {
+      wlock.unlock();
+    }
+
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Entries for [{}] are:", source.getName());
+      if (tmp_hasZeroKey)
+        LOGGER.debug("  - 0: {}", tmp_zeroValue);
+      for (int slot = 0; slot < capacity; slot++) {
+        if (tmp_keys[slot] != 0)
+          LOGGER.debug("  - {}: {}", tmp_keys[slot], tmp_values[slot]);
+      }
+    }
+  }
+
+  @Override
+  boolean supportsLiveChanges() {
+    return true;
+  }
+
+  @Override
+  String normalizeKey(String key) {
+    if (isInteger(key) == false)
+      throw new IllegalArgumentException("the key [" + key + "] of [" + source.getName() + "] is not an integer");
+    return Long.toString(parseInteger(key));
+  }
+
+  @Override
+  protected long putEntry(String key, Object value) {
+    long item = parseInteger(key);
+    wlock.lock();
+    try {
+      if (item == 0) {
+        Object previous = zeroValue;
+        zeroValue = value;
+        return RamUsageEstimator.sizeOfObject(value) - RamUsageEstimator.sizeOfObject(previous);
+      }
+      long bytes = 0;
+      if ((size + 1) * 2 > keys.length) {
+        bytes = resize(DictionaryMemory.tableCapacity(size + 1, source.getName()));
+      }
+      int mask = keys.length - 1;
+      int slot = hash(item) & mask;
+      while (keys[slot] != 0 && keys[slot] != item)
+        slot = (slot + 1) & mask;
+      if (keys[slot] == 0)
+        size++;
+      bytes += RamUsageEstimator.sizeOfObject(value) - RamUsageEstimator.sizeOfObject(values[slot]);
+      keys[slot] = item;
+      values[slot] = value;
+      return bytes;
+    } finally {
+      wlock.unlock();
+    }
+  }
+
+  // Deletes by shifting back the following keys of the probe sequence, no tombstones are left
+  @Override
+  protected long removeEntry(String key) {
+    long item = parseInteger(key);
+    wlock.lock();
+    try {
+      if (item == 0) {
+        Object previous = zeroValue;
+        zeroValue = null;
+        return -RamUsageEstimator.sizeOfObject(previous);
+      }
+      int mask = keys.length - 1;
+      int hole = hash(item) & mask;
+      while (keys[hole] != 0 && keys[hole] != item)
+        hole = (hole + 1) & mask;
+      if (keys[hole] == 0)
+        return 0;
+      long bytes = -RamUsageEstimator.sizeOfObject(values[hole]);
+      for (int slot = (hole + 1) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+        // the key can fill the hole if the hole is between its home slot and its slot
+        int home = hash(keys[slot]) & mask;
+        if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+          keys[hole] = keys[slot];
+          values[hole] = values[slot];
+          hole = slot;
+        }
+      }
+      keys[hole] = 0;
+      values[hole] = null;
+      size--;
+      return bytes;
+    } finally {
+      wlock.unlock();
+    }
+  }
+
+  // Rehashes the table to the new capacity under the write lock, returns the change of its heap
+  private long resize(int capacity) {
+    long[] tmp_keys = new long[capacity];
+    Object[] tmp_values = new Object[capacity];
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] == 0)
+        continue;
+      int slot = hash(keys[i]) & (capacity - 1);
+      while (tmp_keys[slot] != 0)
+        slot = (slot + 1) & (capacity - 1);
+      tmp_keys[slot] = keys[i];
+      tmp_values[slot] = values[i];
+    }
+    long bytes = RamUsageEstimator.sizeOf(tmp_keys) + DictionaryMemory.sizeOfArray(capacity) -
+                 RamUsageEstimator.sizeOf(keys) - DictionaryMemory.sizeOfArray(keys.length);
+    keys = tmp_keys;
+    values = tmp_values;
+    return bytes;
+  }
+
+  // The murmur3 finalizer: the consecutive keys are spread over the table
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  // True if the string is a decimal integer in the range of a long, checked without exceptions
+  static boolean isInteger(CharSequence s) {
+    int length = s.length();
+    int i = length > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+') ? 1 : 0;
+    if (i == length)
+      return false;
+    boolean negative = s.charAt(0) == '-';
+    long value = 0;
+    for (; i < length; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9')
+        return false;
+      // accumulated as a negative number, whose range is larger
+      if (value < (Long.MIN_VALUE + (c - '0')) / 10)
+        return false;
+      value = value * 10 - (c - '0');
+    }
+    return negative || value != Long.MIN_VALUE;
+  }
+
+  // Parses a string accepted by isInteger
+  static long parseInteger(CharSequence s) {
+    int i = s.charAt(0) == '-' || s.charAt(0) == '+' ? 1 : 0;
+    long value = 0;
+    for (; i < s.length(); i++)
+      value = value * 10 - (s.charAt(i) - '0');
+    return s.charAt(0) == '-' ? value : -value;
+  }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * A translator over a partitioned dictionary: each partition is a translator of the same type with its
+ * own checksum, and only the changed partitions are reloaded.
+ *
+ * The string lookups are routed to a single partition when every key of the partition {@code i} of {@code n}
+ * has {@code floorMod(murmur3(key), n) == i}, murmur3 being the hash of the Elasticsearch routing applied to
+ * the lowercase key. Otherwise, as for the ip type, the partitions are probed in file name order.
+ */
+final class PartitionedTranslator extends Translator {
+  // The type of the partitions
+  private final String type;
+  // The partitions sorted by file name and their files
+  private Translator[] partitions;
+  private Path[] files;
+  // True if the lookups are routed by key hash
+  private boolean routed;
+  // The checksums of the partitions computed by the last check, taken by the load that follows it
+  private Map<Path, String> checkedPartitions;
+
+  // The dictionary is always loaded by the caller: the type must be set before the first load
+  PartitionedTranslator(String type, DirectoryDictionarySource source, TranslatorContext context)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, false);
+    if ("string".equalsIgnoreCase(type) == false && "ip".equalsIgnoreCase(type) == false)
+      throw new IllegalStateException("Invalid translator type: [" + type + "]");
+    this.type = type;
+  }
+
+
+  @Override
+  public Object lookup(String item, boolean retMultipleValue) {
+    return lookup((CharSequence) item, retMultipleValue);
+  }
+
+  // The partitions are given the key as it is, they can read it in place. A routed key is read folded in place, to
+  // hash it and to look it up in its partition.
+  @Override
+  public Object lookup(CharSequence item, boolean retMultipleValue) {
+    Translator[] current;
+    boolean route;
+    rlock.lock();
+    try {
+      current = partitions;
+      route = routed;
+    } finally {
+      rlock.unlock();
+    }
+    if (current == null)
+      return null;
+
+    if (route) {
+      StringTranslator.FoldedKey folded = StringTranslator.foldedKey(item);
+      return ((StringTranslator) current[Math.floorMod(murmur3(folded), current.length)]).lookupFolded(folded);
+    }
+
+    List<Object> multipleValue = null;
+    for (Translator partition : current) {
+      Object value = partition.lookup(item, retMultipleValue);
+      if (value == null)
+        continue;
+      if (retMultipleValue == false)
+        return value;
+      if (multipleValue == null)
+        multipleValue = new ArrayList<>();
+      if (value instanceof List)
+        multipleValue.addAll((List<?>) value);
+      else
+        multipleValue.add(value);
+    }
+    return multipleValue;
+  }
+
+  boolean isRouted() {
+    rlock.lock();
+    try {
+      return routed;
+    } finally {
+      rlock.unlock();
+    }
+  }
+
+  // The partitions of strings are case-insensitive, the ones of networks aren't
+  @Override
+  boolean foldsKeys() {
+    return "string".equalsIgnoreCase(type);
+  }
+
+  // Each partition is read once for each check: its checksum is given to its reload
+  @Override
+  protected String checksum() throws IOException, NoSuchAlgorithmException {
+    checkedPartitions = ((DirectoryDictionarySource) source).checksums();
+    return DirectoryDictionarySource.checksum(checkedPartitions);
+  }
+
+  // Reloads the changed partitions, loads the new ones and drops the removed ones
+  @Override
+  protected LoadStats load(DictionaryMemory memory) throws IOException, NoSuchAlgorithmException {
+    Map<Path, String> checksums = checkedPartitions;
+    checkedPartitions = null;
+    if (checksums == null)
+      checksums = ((DirectoryDictionarySource) source).checksums();
+    List<Path> newFiles = new ArrayList<>(checksums.keySet());
+    Map<Path, Translator> current = new HashMap<>();
+    if (partitions != null) {
+      for (int i = 0; i < partitions.length; i++)
+        current.put(files[i], partitions[i]);
+    }
+
+    Translator[] newPartitions = new Translator[newFiles.size()];
+    List<Translator> created = new ArrayList<>();
+    try {
+      for (int i = 0; i < newPartitions.length; i++) {
+        newPartitions[i] = current.remove(newFiles.get(i));
+        if (newPartitions[i] == null) {
+          newPartitions[i] = Translator.Factory.create(type, new FileDictionarySource(newFiles.get(i)), context, false);
+          created.add(newPartitions[i]);
+        }
+        // a partition is swapped as soon as it is reloaded
+        newPartitions[i].loadIfChanged(checksums.get(newFiles.get(i)));
+      }
+    } catch (Exception e) {
+      for (Translator partition : created)
+        partition.releaseMemory();
+      throw e;
+    }
+
+    boolean newRouted = isRouted(newPartitions);
+    memory.commit(2 * DictionaryMemory.sizeOfArray(newPartitions.length));
+
+    wlock.lock();
+    try {
+      partitions = newPartitions;
+      files = newFiles.toArray(new Path[0]);
+      routed = newRouted;
+    } finally {
+      wlock.unlock();
+    }
+    // the partitions left are the removed ones
+    for (Translator partition : current.values())
+      partition.releaseMemory();
+
+    int entries = 0, distinctValues = 0;
+    long dedupSavedBytes = 0, estimatedBytes = memory.getEstimatedBytes();
+    for (Translator partition : newPartitions) {
+      LoadStats stats = partition.getStats();
+      entries += stats.entries;
+      distinctValues += stats.distinctValues;
+      dedupSavedBytes += stats.dedupSavedBytes;
+      estimatedBytes += stats.estimatedBytes;
+    }
+    LOGGER.info("Partitioned dictionary [{}] has {} partitions{}", source.getName(), newPartitions.length,
+                newRouted ? " routed by key hash" : "");
+    return new LoadStats(entries, distinctValues, dedupSavedBytes, estimatedBytes, System.currentTimeMillis());
+  }
+
+  @Override
+  void releaseMemory() {
+    super.releaseMemory();
+    Translator[] current = partitions;
+    if (current != null) {
+      for (Translator partition : current)
+        partition.releaseMemory();
+    }
+  }
+
+  private boolean isRouted(Translator[] newPartitions) throws IOException {
+    if ("string".equalsIgnoreCase(type) == false)
+      return false;
+    boolean[] conforming = new boolean[newPartitions.length];
+    context.parallelFor(newPartitions.length, i ->
+        conforming[i] = ((StringTranslator) newPartitions[i])
+            .allKeysMatch(key -> Math.floorMod(murmur3(key), newPartitions.length) == i));
+    for (boolean partitionConforms : conforming) {
+      if (partitionConforms == false)
+        return false;
+    }
+    return true;
+  }
+
+  // The murmur3 x86 32 bits hash of the UTF-16LE bytes of the key with seed 0, as the routing of the
+  // Elasticsearch documents, computed without encoding the key
+  static int murmur3(CharSequence key) {
+    int h = 0;
+    int length = key.length();
+    int i = 0;
+    for (; i + 1 < length; i += 2) {
+      h ^= mixK(key.charAt(i) | (key.charAt(i + 1) << 16));
+      h = Integer.rotateLeft(h, 13);
+      h = h * 5 + 0xe6546b64;
+    }
+    if (i < length)
+      h ^= mixK(key.charAt(i));
+    h ^= 2 * length;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static int mixK(int k) {
+    k *= 0xcc9e2d51;
+    k = Integer.rotateLeft(k, 15);
+    return k * 0x1b873593;
+  }
+
+}
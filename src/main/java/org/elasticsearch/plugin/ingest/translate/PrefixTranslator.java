@@ -0,0 +1,238 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * A string translator matching the longest key that is a prefix of the item, ignoring case: phone number
+ * prefixes, URL paths, product codes.
+ *
+ * The keys are stored in a trie of the bytes of their UTF-8 encoding and the lookup walks the trie once
+ * along the item, folding and encoding it char by char: no substrings are built and the lock is acquired once.
+ */
+final class PrefixTranslator extends EntryTranslator {
+  // The trie of the case folded keys, in breadth first order: the children of the node n are the nodes
+  // from firstChild[n] to firstChild[n + 1] sorted by label, the label being the byte of the edge entering
+  // the node. The value of a node is the index in values, -1 if no key ends on the node.
+  private int[] firstChild;
+  private byte[] labels;
+  private int[] valueOf;
+  private Object[] values;
+  // The values of all the keys that are a prefix of the key of each value, from the longest
+  private List<Object>[] prefixValues;
+
+  PrefixTranslator(DictionarySource source, TranslatorContext context, boolean loadNow)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, loadNow);
+    if (values == null && loadNow) {
+      throw new IllegalStateException(
+          "Unable to create PrefixTranslator for [" + source.getName() + "]");
+    }
+  }
+
+
+  // Returns the value of the longest key that is a prefix of the item or, with multiple values, the values
+  // of all the keys that are a prefix of the item from the longest to the shortest
+  @Override
+  public Object lookup(String item, boolean retMultipleValue) {
+    return lookup((CharSequence) item, retMultipleValue);
+  }
+
+  @Override
+  public Object lookup(CharSequence item, boolean retMultipleValue) {
+    rlock.lock();
+    try {
+      if (values == null)
+        return null;
+
+      int node = 0;
+      int longest = valueOf[0];
+      for (int i = 0; i < item.length() && node >= 0; i++) {
+        char c = item.charAt(i);
+        int codePoint = Character.toLowerCase(Character.toUpperCase(c));
+        if (Character.isHighSurrogate(c) && i + 1 < item.length() && Character.isLowSurrogate(item.charAt(i + 1))) {
+          codePoint = Character.toCodePoint(c, item.charAt(++i));
+        } else if (Character.isSurrogate(c)) {
+          // as String.getBytes, an unpaired surrogate is encoded as '?'
+          codePoint = '?';
+        }
+
+        // the UTF-8 bytes of the code point
+        if (codePoint < 0x80) {
+          node = child(node, codePoint);
+        } else if (codePoint < 0x800) {
+          node = child(child(node, 0xC0 | (codePoint >> 6)), 0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+          node = child(child(child(node, 0xE0 | (codePoint >> 12)), 0x80 | ((codePoint >> 6) & 0x3F)),
+                       0x80 | (codePoint & 0x3F));
+        } else {
+          node = child(child(child(child(node, 0xF0 | (codePoint >> 18)), 0x80 | ((codePoint >> 12) & 0x3F)),
+                             0x80 | ((codePoint >> 6) & 0x3F)), 0x80 | (codePoint & 0x3F));
+        }
+        if (node >= 0 && valueOf[node] >= 0)
+          longest = valueOf[node];
+      }
+
+      if (longest < 0)
+        return null;
+      return retMultipleValue ? prefixValues[longest] : values[longest];
+    } finally {
+      rlock.unlock();
+    }
+  }
+
+  // The child of the node with the label, -1 if there is no such child or no such node
+  private int child(int node, int label) {
+    if (node < 0)
+      return -1;
+    int child = Arrays.binarySearch(labels, firstChild[node], firstChild[node + 1], (byte) label);
+    return child < 0 ? -1 : child;
+  }
+
+  @Override
+  boolean foldsKeys() {
+    return true;
+  }
+
+  @Override
+  protected void loadDictionary(Map<String, Object> entries, DictionaryMemory memory) throws IOException {
+    Map.Entry<String, Object>[] items = entries.entrySet().toArray(new Map.Entry[0]);
+    String[] folded = new String[items.length];
+    context.parallelFor(items.length, i -> folded[i] = StringTranslator.fold(items[i].getKey()));
+
+    // the last of the keys equal ignoring case wins
+    Map<String, Object> dictionary = new LinkedHashMap<>();
+    for (int i = 0; i < items.length; i++)
+      dictionary.put(folded[i], items[i].getValue());
+    byte[][] keys = new byte[dictionary.size()][];
+    Object[] tmp_values = new Object[dictionary.size()];
+    Integer[] order = new Integer[dictionary.size()];
+    int size = 0;
+    long bytes = 0;
+    for (Map.Entry<String, Object> entry : dictionary.entrySet()) {
+      keys[size] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      tmp_values[size] = entry.getValue();
+      order[size] = size;
+      bytes += keys[size].length;
+      size++;
+    }
+    // the labels are compared as signed bytes, as by the binary search of the lookup
+    Arrays.sort(order, (a, b) -> Arrays.compare(keys[a], keys[b]));
+    byte[][] sortedKeys = new byte[size][];
+    Object[] sortedValues = new Object[size];
+    for (int i = 0; i < size; i++) {
+      sortedKeys[i] = keys[order[i]];
+      sortedValues[i] = tmp_values[order[i]];
+    }
+
+    // each node covers the range of the sorted keys sharing its prefix, its children are appended
+    // when it is visited
+    int capacity = (int) Math.min(Integer.MAX_VALUE - 1, bytes + 1);
+    int[] tmp_firstChild = new int[capacity + 1];
+    byte[] tmp_labels = new byte[capacity];
+    int[] tmp_valueOf = new int[capacity];
+    int[] parentOf = new int[capacity];
+    int[] rangeFrom = new int[capacity];
+    int[] rangeTo = new int[capacity];
+    int[] depth = new int[capacity];
+    rangeTo[0] = size;
+    parentOf[0] = -1;
+    int nodes = 1;
+    for (int node = 0; node < nodes; node++) {
+      int lo = rangeFrom[node];
+      int hi = rangeTo[node];
+      int d = depth[node];
+      tmp_valueOf[node] = -1;
+      // a key ending on the node sorts before the longer ones
+      if (lo < hi && sortedKeys[lo].length == d)
+        tmp_valueOf[node] = lo++;
+      tmp_firstChild[node] = nodes;
+      while (lo < hi) {
+        byte label = sortedKeys[lo][d];
+        int end = lo + 1;
+        while (end < hi && sortedKeys[end][d] == label)
+          end++;
+        tmp_labels[nodes] = label;
+        parentOf[nodes] = node;
+        rangeFrom[nodes] = lo;
+        rangeTo[nodes] = end;
+        depth[nodes] = d + 1;
+        nodes++;
+        lo = end;
+      }
+    }
+    tmp_firstChild[nodes] = nodes;
+    tmp_firstChild = Arrays.copyOf(tmp_firstChild, nodes + 1);
+    tmp_labels = Arrays.copyOf(tmp_labels, nodes);
+    tmp_valueOf = Arrays.copyOf(tmp_valueOf, nodes);
+
+    // the parents are visited before their children: the list of a key extends the one of its longest prefix
+    List<Object>[] tmp_prefixValues = new List[size];
+    int[] longestPrefixOf = new int[nodes];
+    long listBytes = DictionaryMemory.sizeOfArray(size);
+    for (int node = 0; node < nodes; node++) {
+      int parentPrefix = node == 0 ? -1 : longestPrefixOf[parentOf[node]];
+      if (tmp_valueOf[node] < 0) {
+        longestPrefixOf[node] = parentPrefix;
+        continue;
+      }
+      List<Object> shorter = parentPrefix < 0 ? Collections.emptyList() : tmp_prefixValues[parentPrefix];
+      Object[] prefixes = new Object[shorter.size() + 1];
+      prefixes[0] = sortedValues[tmp_valueOf[node]];
+      for (int i = 0; i < shorter.size(); i++)
+        prefixes[i + 1] = shorter.get(i);
+      tmp_prefixValues[tmp_valueOf[node]] = Collections.unmodifiableList(Arrays.asList(prefixes));
+      longestPrefixOf[node] = tmp_valueOf[node];
+      listBytes += 2 * RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + DictionaryMemory.sizeOfArray(prefixes.length);
+    }
+
+    memory.commit(RamUsageEstimator.sizeOf(tmp_firstChild) + RamUsageEstimator.sizeOf(tmp_labels) +
+                  RamUsageEstimator.sizeOf(tmp_valueOf) + DictionaryMemory.sizeOfArray(size) + listBytes);
+
+    wlock.lock();
+    try {
+      firstChild = tmp_firstChild;
+      labels = tmp_labels;
+      valueOf = tmp_valueOf;
+      values = sortedValues;
+      prefixValues = tmp_prefixValues;
+    } finally {
+      wlock.unlock();
+    }
+
+    LOGGER.info("Prefix translator for [{}] has {} keys in a trie of {} nodes", source.getName(), size, nodes);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Entries for [{}] are:", source.getName());
+      for (int i = 0; i < size; i++)
+        LOGGER.debug("  - {}: {}", new String(sortedKeys[i], StandardCharsets.UTF_8), sortedValues[i]);
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+
+
+/**
+ * Upserts and deletes entries of a dictionary file on every ingest node with {@link TranslateEntriesAction}: the
+ * changes are persisted in the journal of the dictionary of each node and applied to its translators without
+ * reloading them.
+ */
+final class RestTranslateEntriesAction extends BaseRestHandler {
+
+  @Override
+  public String getName() {
+    return "ingest_translate_entries_action";
+  }
+
+  @Override
+  public List<Route> routes() {
+    return Collections.singletonList(new Route(POST, "/_ingest/translate/_entries"));
+  }
+
+  @Override
+  protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+    Map<String, Object> body;
+    try (XContentParser parser = request.contentParser()) {
+      body = parser.map();
+    }
+    Object dictionary = body.get("dictionary");
+    Object upserts = body.getOrDefault("upsert", Collections.emptyMap());
+    Object deletes = body.getOrDefault("delete", Collections.emptyList());
+    if (dictionary instanceof String == false)
+      throw new IllegalArgumentException("[dictionary] is required and must be a string");
+    if (upserts instanceof Map == false)
+      throw new IllegalArgumentException("[upsert] must be an object of the entries to upsert");
+    if (deletes instanceof List == false)
+      throw new IllegalArgumentException("[delete] must be a list of the keys to delete");
+    List<String> deleteKeys = new ArrayList<>();
+    for (Object key : (List<?>) deletes) {
+      if (key instanceof String == false)
+        throw new IllegalArgumentException("[delete] must be a list of the keys to delete, but has [" + key + "]");
+      deleteKeys.add((String) key);
+    }
+
+    TranslateEntriesAction.Request entriesRequest = new TranslateEntriesAction.Request(
+        (String) dictionary, new LinkedHashMap<>((Map<String, Object>) upserts), deleteKeys);
+    return channel -> client.execute(TranslateEntriesAction.INSTANCE, entriesRequest,
+                                     new RestActions.NodesResponseRestListener<>(channel));
+  }
+
+}
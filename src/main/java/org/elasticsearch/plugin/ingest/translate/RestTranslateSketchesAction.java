@@ -0,0 +1,85 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+
+
+/**
+ * Reports the sketches of the keys looked up in the dictionaries of the node that receives the request.
+ */
+final class RestTranslateSketchesAction extends BaseRestHandler {
+  private final Supplier<TranslateProcessor.Factory> factory;
+
+  RestTranslateSketchesAction(Supplier<TranslateProcessor.Factory> factory) {
+    this.factory = factory;
+  }
+
+  @Override
+  public String getName() {
+    return "ingest_translate_sketches_action";
+  }
+
+  @Override
+  public List<Route> routes() {
+    return Collections.singletonList(new Route(GET, "/_ingest/translate/sketches"));
+  }
+
+  @Override
+  protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+    Map<String, Translator> translators = factory.get() == null ?
+        Collections.emptyMap() : new TreeMap<>(factory.get().getTranslators());
+    return channel -> {
+      XContentBuilder builder = channel.newBuilder();
+      builder.startObject();
+      builder.startObject("dictionaries");
+      for (Map.Entry<String, Translator> entry : translators.entrySet()) {
+        KeySketch sketch = entry.getValue().getSketch();
+        if (sketch == null)
+          continue;
+        builder.startObject(entry.getKey());
+        builder.field("sample_interval", sketch.getSampleInterval());
+        builder.field("hits", sketch.hits());
+        builder.field("misses", sketch.misses());
+        builder.field("distinct_misses", sketch.distinctMisses());
+        builder.field("top_hits", sketch.topHits());
+        builder.field("top_misses", sketch.topMisses());
+        builder.endObject();
+      }
+      builder.endObject();
+      builder.endObject();
+      channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+    };
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+
+
+/**
+ * Reports the dictionaries loaded by the node that receives the request.
+ */
+final class RestTranslateStatsAction extends BaseRestHandler {
+  private final Supplier<TranslateProcessor.Factory> factory;
+
+  RestTranslateStatsAction(Supplier<TranslateProcessor.Factory> factory) {
+    this.factory = factory;
+  }
+
+  @Override
+  public String getName() {
+    return "ingest_translate_stats_action";
+  }
+
+  @Override
+  public List<Route> routes() {
+    return Collections.singletonList(new Route(GET, "/_ingest/translate/stats"));
+  }
+
+  @Override
+  protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+    Map<String, Translator> translators = factory.get() == null ?
+        Collections.emptyMap() : new TreeMap<>(factory.get().getTranslators());
+    TranslatorCache dynamicTranslators = factory.get() == null ? null : factory.get().getDynamicTranslators();
+    return channel -> {
+      XContentBuilder builder = channel.newBuilder();
+      builder.startObject();
+      if (dynamicTranslators != null) {
+        builder.startObject("dynamic");
+        builder.field("dictionaries", dynamicTranslators.getTranslators().size());
+        builder.field("max_dictionaries", dynamicTranslators.getMaxDictionaries());
+        builder.humanReadableField("estimated_size_in_bytes", "estimated_size",
+                                   new ByteSizeValue(dynamicTranslators.getEstimatedBytes()));
+        builder.field("evictions", dynamicTranslators.getEvictions());
+        builder.endObject();
+      }
+      builder.startObject("dictionaries");
+      for (Map.Entry<String, Translator> entry : translators.entrySet()) {
+        Translator translator = entry.getValue();
+        Translator.LoadStats stats = translator.getStats();
+        builder.startObject(entry.getKey());
+        builder.field("source", translator.getSourceName());
+        builder.field("loaded", translator.isLoaded());
+        if (stats != null) {
+          builder.field("entries", stats.entries);
+          builder.field("distinct_values", stats.distinctValues);
+          builder.humanReadableField("estimated_size_in_bytes", "estimated_size", new ByteSizeValue(stats.estimatedBytes));
+          builder.humanReadableField("dedup_saved_in_bytes", "dedup_saved", new ByteSizeValue(stats.dedupSavedBytes));
+          builder.timeField("last_load_millis", "last_load", stats.loadedAtMillis);
+        }
+        builder.endObject();
+      }
+      builder.endObject();
+      builder.endObject();
+      channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+    };
+  }
+
+}
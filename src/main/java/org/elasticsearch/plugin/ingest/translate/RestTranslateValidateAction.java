@@ -0,0 +1,104 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+
+
+/**
+ * Loads the dictionaries of a translate processor configuration on the node that receives the request,
+ * without using them, and reports their estimated heap: a dry run before deploying a new dictionary.
+ */
+final class RestTranslateValidateAction extends BaseRestHandler {
+  private static final Logger LOGGER = LogManager.getLogger(RestTranslateValidateAction.class);
+
+  private final Supplier<TranslateProcessor.Factory> factory;
+
+  RestTranslateValidateAction(Supplier<TranslateProcessor.Factory> factory) {
+    this.factory = factory;
+  }
+
+  @Override
+  public String getName() {
+    return "ingest_translate_validate_action";
+  }
+
+  @Override
+  public List<Route> routes() {
+    return Arrays.asList(new Route(GET, "/_ingest/translate/_validate"),
+                         new Route(POST, "/_ingest/translate/_validate"));
+  }
+
+  @Override
+  protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+    Map<String, Object> config;
+    try (XContentParser parser = request.contentParser()) {
+      config = parser.map();
+    }
+    if (factory.get() == null)
+      throw new IllegalStateException("the translate processor is not available on this node");
+    // the configuration errors are reported before the dictionaries are loaded
+    CompletableFuture<List<Map<String, Object>>> validation = factory.get().validate(config);
+    return channel -> validation.whenComplete((results, e) -> {
+      try {
+        if (e != null) {
+          Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+          channel.sendResponse(new BytesRestResponse(channel, cause instanceof Exception ?
+                                                     (Exception) cause : new RuntimeException(cause)));
+          return;
+        }
+        boolean valid = true;
+        for (Map<String, Object> result : results)
+          valid &= Boolean.TRUE.equals(result.get("valid"));
+
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        builder.field("valid", valid);
+        builder.startArray("dictionaries");
+        for (Map<String, Object> result : results)
+          builder.map(result);
+        builder.endArray();
+        builder.endObject();
+        channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+      } catch (IOException inner) {
+        LOGGER.warn("failed to send the translate validation response", inner);
+      }
+    });
+  }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.security.NoSuchAlgorithmException;
+
+
+
+/**
+ * A translator for the dictionaries that are sets, e.g. lists of indicators: only the keys are kept and a lookup
+ * returns {@link Boolean#TRUE} if the key is in the set. The processor writes {@code hit_value} or the key instead.
+ *
+ * When all the keys are hexadecimal strings of the same length of at least 16 digits, as the MD5, SHA-1 and SHA-256
+ * hashes, they are decoded into a sorted long[], 4 bits per digit. Otherwise the case folded keys are stored sorted
+ * as UTF-8 in a single byte[], with the int[] of their offsets. A lookup is a binary search with no allocation
+ * for the hexadecimal keys; the heap is about the raw size of the keys, with no object per key.
+ */
+final class SetTranslator extends EntryTranslator {
+  // The minimum length of the keys stored as hexadecimal numbers: shorter ones are likely words
+  static final int MIN_HEX_LENGTH = 16;
+
+  // The digits of the hexadecimal keys, 0 if the keys are stored as bytes
+  private int hexLength;
+  // The hexadecimal keys, each one in hexLength / 16 rounded up longs, sorted as unsigned numbers
+  private long[] hexKeys;
+  // The UTF-8 bytes of the case folded keys, sorted as unsigned bytes, and the offset of each one
+  private byte[] keyBytes;
+  private int[] keyOffsets;
+
+  SetTranslator(DictionarySource source, TranslatorContext context, boolean loadNow)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, loadNow);
+    if (hexKeys == null && keyOffsets == null && loadNow) {
+      throw new IllegalStateException(
+          "Unable to create SetTranslator for [" + source.getName() + "]");
+    }
+  }
+
+
+  @Override
+  public Object lookup(String item, boolean retMultipleValue) {
+    return lookup((CharSequence) item, retMultipleValue);
+  }
+
+  @Override
+  public Object lookup(CharSequence item, boolean retMultipleValue) {
+    rlock.lock();
+    try {
+      if (hexKeys != null)
+        return containsHex(item) ? Boolean.TRUE : null;
+      if (keyOffsets != null)
+        return containsBytes(StringTranslator.fold(item).toString().getBytes(StandardCharsets.UTF_8)) ? Boolean.TRUE : null;
+      return null;
+    } finally {
+      rlock.unlock();
+    }
+  }
+
+  // The digits of the item are compared to the ones of the keys word by word: the item isn't decoded whole
+  private boolean containsHex(CharSequence item) {
+    if (item.length() != hexLength || isHex(item) == false)
+      return false;
+    int words = words(hexLength);
+    int low = 0;
+    int high = hexKeys.length / words - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = 0;
+      for (int w = 0; w < words && cmp == 0; w++)
+        cmp = Long.compareUnsigned(hexKeys[mid * words + w], decodeWord(item, w));
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        high = mid - 1;
+      else
+        return true;
+    }
+    return false;
+  }
+
+  private boolean containsBytes(byte[] key) {
+    int low = 0;
+    int high = keyOffsets.length - 2;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = Arrays.compareUnsigned(keyBytes, keyOffsets[mid], keyOffsets[mid + 1], key, 0, key.length);
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        high = mid - 1;
+      else
+        return true;
+    }
+    return false;
+  }
+
+  @Override
+  boolean foldsKeys() {
+    return true;
+  }
+
+  @Override
+  protected void loadDictionary(Map<String, Object> entries, DictionaryMemory memory) throws IOException {
+    String[] keys = entries.keySet().toArray(new String[0]);
+    // the values are not kept
+    memory.setValuesBytes(0);
+
+    int tmp_hexLength = keys.length == 0 ? 0 : keys[0].length();
+    boolean hex = tmp_hexLength >= MIN_HEX_LENGTH;
+    for (int i = 0; i < keys.length && hex; i++)
+      hex = keys[i].length() == tmp_hexLength && isHex(keys[i]);
+
+    long[] tmp_hexKeys = null;
+    byte[] tmp_keyBytes = null;
+    int[] tmp_keyOffsets = null;
+    int size;
+    if (hex) {
+      tmp_hexKeys = sortedHexKeys(keys, tmp_hexLength);
+      size = tmp_hexKeys.length / words(tmp_hexLength);
+      memory.commit(RamUsageEstimator.sizeOf(tmp_hexKeys));
+    } else {
+      byte[][] folded = new byte[keys.length][];
+      context.parallelFor(keys.length, i -> folded[i] = StringTranslator.fold(keys[i]).getBytes(StandardCharsets.UTF_8));
+      Arrays.sort(folded, Arrays::compareUnsigned);
+
+      // the keys equal ignoring case are stored once
+      int length = 0;
+      size = 0;
+      for (int i = 0; i < folded.length; i++) {
+        if (i > 0 && Arrays.equals(folded[i], folded[i - 1]))
+          continue;
+        folded[size++] = folded[i];
+        length += folded[i].length;
+      }
+      tmp_keyBytes = new byte[length];
+      tmp_keyOffsets = new int[size + 1];
+      for (int i = 0; i < size; i++) {
+        System.arraycopy(folded[i], 0, tmp_keyBytes, tmp_keyOffsets[i], folded[i].length);
+        tmp_keyOffsets[i + 1] = tmp_keyOffsets[i] + folded[i].length;
+      }
+      tmp_hexLength = 0;
+      memory.commit(RamUsageEstimator.sizeOf(tmp_keyBytes) + RamUsageEstimator.sizeOf(tmp_keyOffsets));
+    }
+
+    wlock.lock();
+    try {
+      hexLength = tmp_hexLength;
+      hexKeys = tmp_hexKeys;
+      keyBytes = tmp_keyBytes;
+      keyOffsets = tmp_keyOffsets;
+    } finally {
+      wlock.unlock();
+    }
+
+    LOGGER.info("Set translator for [{}] has {} {} keys in {} bytes", source.getName(), size,
+                hex ? "hexadecimal" : "string", memory.getEstimatedBytes());
+  }
+
+  // The decoded keys sorted as unsigned numbers, without duplicates
+  private long[] sortedHexKeys(String[] keys, int length) throws IOException {
+    int words = words(length);
+    long[] decoded = new long[keys.length * words];
+    context.parallelFor(keys.length, i -> {
+      for (int w = 0; w < words; w++)
+        decoded[i * words + w] = decodeWord(keys[i], w);
+    });
+
+    Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, (a, b) -> {
+      for (int w = 0; w < words; w++) {
+        int cmp = Long.compareUnsigned(decoded[a * words + w], decoded[b * words + w]);
+        if (cmp != 0)
+          return cmp;
+      }
+      return 0;
+    });
+
+    long[] sorted = new long[decoded.length];
+    int size = 0;
+    for (int key : order) {
+      if (size > 0 && Arrays.equals(sorted, (size - 1) * words, size * words, decoded, key * words, (key + 1) * words))
+        continue;
+      System.arraycopy(decoded, key * words, sorted, size * words, words);
+      size++;
+    }
+    return size * words == sorted.length ? sorted : Arrays.copyOf(sorted, size * words);
+  }
+
+  private static int words(int hexLength) {
+    return (hexLength + 15) / 16;
+  }
+
+  // The word of the digits [16 * word, 16 * word + 16), the last word is padded with zeros
+  private static long decodeWord(CharSequence key, int word) {
+    long value = 0;
+    for (int i = word * 16; i < word * 16 + 16; i++)
+      value = (value << 4) | (i < key.length() ? Character.digit(key.charAt(i), 16) : 0);
+    return value;
+  }
+
+  private static boolean isHex(CharSequence key) {
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))
+        continue;
+      return false;
+    }
+    return true;
+  }
+
+}
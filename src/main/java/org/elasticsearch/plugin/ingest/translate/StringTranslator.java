@@ -18,83 +18,303 @@
 package org.elasticsearch.plugin.ingest.translate;
 
 import java.nio.file.Path;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
-import java.io.InputStream;
 import java.io.IOException;
 
-import org.elasticsearch.SpecialPermission;
-import java.security.AccessController;
-import java.security.PrivilegedExceptionAction;
-import java.security.PrivilegedActionException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import com.fasterxml.jackson.core.type.TypeReference;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.function.Predicate;
 import java.security.NoSuchAlgorithmException;
 import com.cronutils.model.Cron;
 
 
 
 
-final class StringTranslator extends Translator {
-  // The dictionary for the Translator
-  private Map<String, Object> dictionary;
+final class StringTranslator extends EntryTranslator {
+  // The dictionary for the Translator: the case folded keys are partitioned by hash
+  // so that the partitions can be built in parallel
+  private Map<String, Object>[] dictionary;
+  // The folded views of the keys looked up, one per thread
+  private static final ThreadLocal<FoldedKey> FOLDED_KEYS = ThreadLocal.withInitial(FoldedKey::new);
 
   StringTranslator(Path dictionaryPath, Cron cron)  throws IOException, NoSuchAlgorithmException {
-    super(dictionaryPath, cron);
-    if (dictionary == null) {
+    this(new FileDictionarySource(dictionaryPath), new TranslatorContext(cron), true);
+  }
+
+  StringTranslator(DictionarySource source, TranslatorContext context, boolean loadNow)
+      throws IOException, NoSuchAlgorithmException {
+    super(source, context, loadNow);
+    if (dictionary == null && loadNow) {
       throw new IllegalStateException(
-          "Unable to create StringTranslator for [" + dictionaryPath + "]");
-    } else
-      LOGGER.info("Translator for [{}] created with {} entries", dictionaryPath.getFileName().toString(), dictionary.size());
+          "Unable to create StringTranslator for [" + source.getName() + "]");
+    } else if (dictionary != null)
+      LOGGER.info("Translator for [{}] created with {} entries", source.getName(), size(dictionary));
   }
 
 
   @Override
   public Object lookup(String item, boolean retMultipleValue) {
+    return lookupFolded(foldedKey(item));
+  }
+
+  // The extracted key is looked up in place, as the string keys
+  @Override
+  public Object lookup(CharSequence item, boolean retMultipleValue) {
+    return lookupFolded(foldedKey(item));
+  }
+
+  // The key is the folded view of the thread, as given to the routing of a partitioned dictionary
+  Object lookupFolded(FoldedKey key) {
     rlock.lock();
     try {
       if (dictionary == null)
         return null;
-      return dictionary.get(item);
+      return dictionary[partition(key.hashCode(), dictionary.length)].get(key);
     } finally {
       rlock.unlock();
+      key.clear();
     }
   }
 
+  // The folded view of the key, valid until the next lookup of the thread
+  static FoldedKey foldedKey(CharSequence key) {
+    return FOLDED_KEYS.get().of(key);
+  }
+
+  @Override
+  boolean foldsKeys() {
+    return true;
+  }
+
   @Override
-  protected void loadDictionary() throws IOException {
+  protected void loadDictionary(Map<String, Object> entries, DictionaryMemory memory) throws IOException {
+    Map.Entry<String, Object>[] items = entries.entrySet().toArray(new Map.Entry[0]);
+    int partitions = Integer.highestOneBit(context.getParallelism() * 2 - 1);
+
+    String[] keys = new String[items.length];
+    int[] partitionOf = new int[items.length];
+    context.parallelFor(items.length, i -> {
+      keys[i] = fold(items[i].getKey());
+      partitionOf[i] = partition(keys[i].hashCode(), partitions);
+    });
+
+    // the entries are bucketed by partition in one pass, each bucket in source order: the last of the keys
+    // equal ignoring case wins
+    int[] bucketStart = new int[partitions + 1];
+    for (int p : partitionOf)
+      bucketStart[p + 1]++;
+    for (int p = 0; p < partitions; p++)
+      bucketStart[p + 1] += bucketStart[p];
+    int[] bucketed = new int[items.length];
+    int[] next = Arrays.copyOf(bucketStart, partitions);
+    for (int i = 0; i < items.length; i++)
+      bucketed[next[partitionOf[i]]++] = i;
+
+    Map<String, Object>[] tmp_dictionary = new Map[partitions];
+    context.parallelFor(partitions, p -> {
+      int size = bucketStart[p + 1] - bucketStart[p];
+      Map<String, Object> partition = new HashMap<>((int) (size / 0.75f) + 1);
+      for (int j = bucketStart[p]; j < bucketStart[p + 1]; j++)
+        partition.put(keys[bucketed[j]], items[bucketed[j]].getValue());
+      tmp_dictionary[p] = partition;
+    });
+
+    long bytes = DictionaryMemory.sizeOfArray(partitions);
+    for (Map<String, Object> partition : tmp_dictionary)
+      bytes += DictionaryMemory.sizeOfHashMap(partition.size());
+    for (String key : keys)
+      bytes += RamUsageEstimator.sizeOf(key);
+    memory.commit(bytes);
+
     wlock.lock();
     try {
-      SpecialPermission.check();
-      Map<String, Object> tmp_dictionary;
-      try {
-        tmp_dictionary = AccessController.doPrivileged((PrivilegedExceptionAction< Map<String, Object> >) () -> {
-          InputStream fileStream = Files.newInputStream(dictionaryPath, StandardOpenOption.READ);
-          ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
-          return yamlReader.readValue(fileStream, new TypeReference<Map<String,Object>>(){});
-        });
-      } catch (PrivilegedActionException e) {
-        // e.getException() should be an instance of IOException
-        // as only checked exceptions will be wrapped in a
-        // PrivilegedActionException.
-        throw (IOException) e.getException();
-      }
-
-      dictionary = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-      dictionary.putAll(tmp_dictionary);
+      dictionary = tmp_dictionary;
+    } finally {
+      wlock.unlock();
+    }
 
-      if (LOGGER.isDebugEnabled()) {
-        LOGGER.debug("Entries for [{}] are:",dictionaryPath.getFileName().toString());
-        for (Map.Entry<String, Object> entry : dictionary.entrySet()) {
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Entries for [{}] are:", source.getName());
+      for (Map<String, Object> partition : tmp_dictionary) {
+        for (Map.Entry<String, Object> entry : partition.entrySet()) {
           LOGGER.debug("  - {}: {}", entry.getKey(), entry.getValue());
         }
       }
+    }
+  }
+
+  @Override
+  boolean supportsLiveChanges() {
+    return true;
+  }
+
+  @Override
+  String normalizeKey(String key) {
+    return fold(key);
+  }
+
+  // A change replaces the entry in its partition: the lookups are blocked only for the single put
+  @Override
+  protected long putEntry(String key, Object value) {
+    String folded = fold(key);
+    Object previous;
+    wlock.lock();
+    try {
+      previous = dictionary[partition(folded.hashCode(), dictionary.length)].put(folded, value);
+    } finally {
+      wlock.unlock();
+    }
+    if (previous == null)
+      return DictionaryMemory.sizeOfEntry(folded, value) + DictionaryMemory.sizeOfHashMapNode();
+    return RamUsageEstimator.sizeOfObject(value) - RamUsageEstimator.sizeOfObject(previous);
+  }
+
+  @Override
+  protected long removeEntry(String key) {
+    String folded = fold(key);
+    Object previous;
+    wlock.lock();
+    try {
+      previous = dictionary[partition(folded.hashCode(), dictionary.length)].remove(folded);
     } finally {
       wlock.unlock();
     }
+    if (previous == null)
+      return 0;
+    return -DictionaryMemory.sizeOfEntry(folded, previous) - DictionaryMemory.sizeOfHashMapNode();
+  }
+
+  private static int size(Map<String, Object>[] dictionary) {
+    int size = 0;
+    for (Map<String, Object> partition : dictionary)
+      size += partition.size();
+    return size;
+  }
+
+  // True if the predicate holds for all the case folded keys
+  boolean allKeysMatch(Predicate<String> predicate) {
+    rlock.lock();
+    try {
+      if (dictionary == null)
+        return false;
+      for (Map<String, Object> partition : dictionary) {
+        for (String key : partition.keySet()) {
+          if (predicate.test(key) == false)
+            return false;
+        }
+      }
+      return true;
+    } finally {
+      rlock.unlock();
+    }
+  }
+
+  // Uses the high bits of the hash of the folded key: the low ones are used by the HashMap of the partition
+  private static int partition(int hash, int partitions) {
+    if (partitions == 1)
+      return 0;
+    return (hash * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(partitions));
+  }
+
+  // Two keys are equal for String.CASE_INSENSITIVE_ORDER if and only if they are folded to the same string
+  static String fold(String key) {
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (Character.toLowerCase(Character.toUpperCase(c)) != c) {
+        char[] folded = key.toCharArray();
+        for (int j = i; j < folded.length; j++)
+          folded[j] = Character.toLowerCase(Character.toUpperCase(folded[j]));
+        return new String(folded);
+      }
+    }
+    return key;
+  }
+
+  // As fold(String), building the folded string directly from the chars: the key is returned as it is if it
+  // is already folded
+  static CharSequence fold(CharSequence key) {
+    if (key instanceof String)
+      return fold((String) key);
+    for (int i = 0; i < key.length(); i++) {
+      char c = key.charAt(i);
+      if (Character.toLowerCase(Character.toUpperCase(c)) != c) {
+        char[] folded = new char[key.length()];
+        for (int j = 0; j < folded.length; j++)
+          folded[j] = j < i ? key.charAt(j) : Character.toLowerCase(Character.toUpperCase(key.charAt(j)));
+        return new String(folded);
+      }
+    }
+    return key;
+  }
+
+  private static char fold(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /**
+   * A key as folded, read through: it has the hash of the folded string and is equal to it, so the hash tables
+   * of the folded keys are looked up without folding the key into a new string. Each thread reuses its own.
+   */
+  static final class FoldedKey implements CharSequence {
+    private CharSequence key;
+    private int hash;
+
+    private FoldedKey of(CharSequence key) {
+      // String.hashCode() of the folded chars
+      int h = 0;
+      for (int i = 0; i < key.length(); i++)
+        h = 31 * h + fold(key.charAt(i));
+      this.key = key;
+      this.hash = h;
+      return this;
+    }
+
+    // The key is not retained after the lookup
+    private void clear() {
+      key = null;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    // Called by Map.get with the keys of the table, which are folded strings
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof String == false)
+        return false;
+      String string = (String) other;
+      if (string.length() != key.length())
+        return false;
+      for (int i = 0; i < string.length(); i++) {
+        if (fold(key.charAt(i)) != string.charAt(i))
+          return false;
+      }
+      return true;
+    }
+
+    @Override
+    public int length() {
+      return key.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+      return fold(key.charAt(index));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return fold(key).toString();
+    }
   }
 
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.ActionType;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.transport.TransportRequest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+
+
+/**
+ * Upserts and deletes entries of a dictionary file on every ingest node: each node appends the changes to its
+ * journal of the dictionary and applies them to its translators.
+ *
+ * The action is a pipeline management action: its name is under {@code cluster:admin/ingest/pipeline/}, so it
+ * requires the {@code manage_ingest_pipelines} cluster privilege (or {@code manage_pipeline}, {@code manage}).
+ */
+final class TranslateEntriesAction extends ActionType<TranslateEntriesAction.Response> {
+  static final String NAME = "cluster:admin/ingest/pipeline/translate/entries";
+  static final TranslateEntriesAction INSTANCE = new TranslateEntriesAction();
+
+  private TranslateEntriesAction() {
+    super(NAME, Response::new);
+  }
+
+  /**
+   * The changes of a dictionary, sent to the ingest nodes.
+   */
+  static final class Request extends BaseNodesRequest<Request> {
+    private final String dictionary;
+    private final Map<String, Object> upserts;
+    private final List<String> deletes;
+
+    Request(String dictionary, Map<String, Object> upserts, List<String> deletes) {
+      super("ingest:true");
+      this.dictionary = dictionary;
+      this.upserts = upserts;
+      this.deletes = deletes;
+    }
+
+    Request(StreamInput in) throws IOException {
+      super(in);
+      this.dictionary = in.readString();
+      this.upserts = in.readMap();
+      this.deletes = in.readStringList();
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+      ActionRequestValidationException validationException = null;
+      if (dictionary == null || dictionary.isEmpty())
+        validationException = addValidationError("[dictionary] is required", validationException);
+      if (upserts.isEmpty() && deletes.isEmpty())
+        validationException = addValidationError("no entries to upsert or delete", validationException);
+      return validationException;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+      super.writeTo(out);
+      out.writeString(dictionary);
+      out.writeMap(upserts);
+      out.writeStringCollection(deletes);
+    }
+  }
+
+  /**
+   * The changes applied by a single node.
+   */
+  static final class NodeRequest extends TransportRequest {
+    final String dictionary;
+    final Map<String, Object> upserts;
+    final List<String> deletes;
+
+    NodeRequest(Request request) {
+      this.dictionary = request.dictionary;
+      this.upserts = request.upserts;
+      this.deletes = request.deletes;
+    }
+
+    NodeRequest(StreamInput in) throws IOException {
+      super(in);
+      this.dictionary = in.readString();
+      this.upserts = in.readMap();
+      this.deletes = in.readStringList();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+      super.writeTo(out);
+      out.writeString(dictionary);
+      out.writeMap(upserts);
+      out.writeStringCollection(deletes);
+    }
+  }
+
+  /**
+   * What a node changed: the dictionary, the counts of the changes, its translators changed and its journal size.
+   */
+  static final class NodeResponse extends BaseNodeResponse {
+    private final Map<String, Object> result;
+
+    NodeResponse(DiscoveryNode node, Map<String, Object> result) {
+      super(node);
+      this.result = result;
+    }
+
+    NodeResponse(StreamInput in) throws IOException {
+      super(in);
+      this.result = in.readMap();
+    }
+
+    Map<String, Object> getResult() {
+      return result;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+      super.writeTo(out);
+      out.writeMap(result);
+    }
+  }
+
+  /**
+   * The changes of every ingest node, by node id, and the nodes that failed to apply them.
+   */
+  static final class Response extends BaseNodesResponse<NodeResponse> implements ToXContentFragment {
+
+    Response(ClusterName clusterName, List<NodeResponse> nodes, List<FailedNodeException> failures) {
+      super(clusterName, nodes, failures);
+    }
+
+    Response(StreamInput in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected List<NodeResponse> readNodesFrom(StreamInput in) throws IOException {
+      return in.readList(NodeResponse::new);
+    }
+
+    @Override
+    protected void writeNodesTo(StreamOutput out, List<NodeResponse> nodes) throws IOException {
+      out.writeList(nodes);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+      builder.startObject("nodes");
+      for (NodeResponse node : getNodes()) {
+        builder.startObject(node.getNode().getId());
+        builder.field("name", node.getNode().getName());
+        for (Map.Entry<String, Object> entry : node.getResult().entrySet())
+          builder.field(entry.getKey(), entry.getValue());
+        builder.endObject();
+      }
+      builder.endObject();
+      return builder;
+    }
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.painless.spi.PainlessExtension;
+import org.elasticsearch.painless.spi.Whitelist;
+import org.elasticsearch.painless.spi.WhitelistInstanceBinding;
+import org.elasticsearch.script.IngestScript;
+import org.elasticsearch.script.ScriptContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+
+/**
+ * Binds the {@link TranslateScriptFunctions} of the plugin for the scripts of the ingest pipelines. Painless creates
+ * the extension with the plugin that extends it, the functions are bound as methods of its instance: the scripts
+ * reach the processor factory of that plugin, without any static state.
+ */
+public class TranslatePainlessExtension implements PainlessExtension {
+  private static final String ORIGIN = "[ingest-translate] TranslateScriptFunctions";
+
+  private final Whitelist whitelist;
+
+  public TranslatePainlessExtension(IngestTranslatePlugin plugin) {
+    TranslateScriptFunctions functions = plugin.getScriptFunctions();
+    List<WhitelistInstanceBinding> bindings = Arrays.asList(
+        binding(functions, "translate", "String", "String"),
+        binding(functions, "translateIp", "String", "String"),
+        binding(functions, "translateIp", "String", "String", "boolean"));
+    whitelist = new Whitelist(TranslatePainlessExtension.class.getClassLoader(), Collections.emptyList(),
+                              Collections.emptyList(), Collections.emptyList(), bindings);
+  }
+
+  private static WhitelistInstanceBinding binding(TranslateScriptFunctions functions, String name, String... parameters) {
+    return new WhitelistInstanceBinding(ORIGIN, functions, name, "def", Arrays.asList(parameters),
+                                        Collections.emptyList());
+  }
+
+  @Override
+  public Map<ScriptContext<?>, List<Whitelist>> getContextWhitelists() {
+    return Collections.singletonMap(IngestScript.CONTEXT, Collections.singletonList(whitelist));
+  }
+
+}
@@ -17,45 +17,191 @@
 
 package org.elasticsearch.plugin.ingest.translate;
 
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.ingest.AbstractProcessor;
 import org.elasticsearch.ingest.IngestDocument;
 import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.script.TemplateScript;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.io.IOException;
-import java.util.Map;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
+import static org.elasticsearch.ingest.ConfigurationUtils.compileTemplate;
 import static org.elasticsearch.ingest.ConfigurationUtils.readBooleanProperty;
+import static org.elasticsearch.ingest.ConfigurationUtils.readIntProperty;
+import static org.elasticsearch.ingest.ConfigurationUtils.readObject;
+import static org.elasticsearch.ingest.ConfigurationUtils.readOptionalList;
 import static org.elasticsearch.ingest.ConfigurationUtils.readOptionalStringProperty;
 import static org.elasticsearch.ingest.ConfigurationUtils.readStringProperty;
 import static org.elasticsearch.ingest.ConfigurationUtils.newConfigurationException;
 
-import com.cronutils.model.Cron;
-
 public class TranslateProcessor extends AbstractProcessor {
 
   public static final String TYPE = "translate";
+  // How long a document waits for the first load of the dictionary with the block policy
+  static final TimeValue DEFAULT_LOADING_TIMEOUT = TimeValue.timeValueSeconds(30);
+
+  // What to do with the documents processed before the first load of the dictionary
+  enum LoadingPolicy {
+    BLOCK, SKIP, FAIL;
+
+    static LoadingPolicy fromString(String policy) {
+      for (LoadingPolicy value : values()) {
+        if (value.name().equalsIgnoreCase(policy))
+          return value;
+      }
+      throw new IllegalArgumentException("Invalid loading policy: [" + policy + "]");
+    }
+  }
+
+  // Returns the translator of a dictionary named by a document
+  interface TranslatorResolver {
+    Translator resolve(String dictionary) throws Exception;
+  }
 
   private final String field;
+  // The elements of the path of the field, split once; null if only IngestDocument can resolve it
+  private final String[] fieldPath;
+  // The fields of a composite key, null if the key is the single field
+  private final List<String> fields;
+  // True if the key can be a number, read without converting it to a string
+  private final boolean numberKeys;
+  // Extracts the key from the string content of the field, null if the key is the whole content
+  private final KeyExtractor keyExtractor;
+  // The value written on a hit of a set dictionary, null if the dictionary values are written
+  private final Object hitValue;
+  // True if the key is written on a hit of a set dictionary
+  private final boolean hitKey;
   private final String targetField;
-  private final String dictionary;
+  // The dictionaries in priority order
+  private final List<String> dictionaries;
   private final boolean addToRoot;
   private final boolean ignoreMissing;
   private final boolean multipleMatch;
-  private final Translator translator;
+  // The translators of the dictionaries, null for the ones named by the documents
+  private final Translator[] translators;
+  // The templates of the dictionary names, null if all the dictionaries are fixed
+  private final TemplateScript.Factory[] dictionaryTemplates;
+  private final TranslatorResolver resolver;
+  private final LoadingPolicy onLoading;
+  private final TimeValue loadingTimeout;
 
   public TranslateProcessor(String tag, String description, String field, String targetField, String dictionary,
                             boolean addToRoot, boolean ignoreMissing, boolean multipleMatch,
                             Translator translator) throws IOException {
+    this(tag, description, field, null, targetField, Collections.singletonList(dictionary),
+         Collections.singletonList(translator),
+         new Options().addToRoot(addToRoot).ignoreMissing(ignoreMissing).multipleMatch(multipleMatch)
+                      .numberKeys(translator instanceof NumberTranslator)
+                      .hitValue(translator instanceof SetTranslator ? Boolean.TRUE : null));
+  }
+
+  TranslateProcessor(String tag, String description, String field, List<String> fields, String targetField,
+                     List<String> dictionaries, List<Translator> translators, Options options) throws IOException {
     super(tag, description);
     this.field = field;
+    this.fieldPath = field == null ? null : splitPath(field);
+    this.fields = fields;
+    this.numberKeys = options.numberKeys;
+    this.keyExtractor = options.keyExtractor;
+    this.hitValue = options.hitValue;
+    this.hitKey = options.hitKey;
     this.targetField = targetField;
-    this.translator = translator;
-    this.addToRoot = addToRoot;
-    this.ignoreMissing = ignoreMissing;
-    this.dictionary = dictionary;
-    this.multipleMatch = multipleMatch;
+    this.translators = translators.toArray(new Translator[0]);
+    this.dictionaryTemplates = options.dictionaryTemplates == null ?
+        null : options.dictionaryTemplates.toArray(new TemplateScript.Factory[0]);
+    this.resolver = options.resolver;
+    this.addToRoot = options.addToRoot;
+    this.ignoreMissing = options.ignoreMissing;
+    this.dictionaries = dictionaries;
+    this.multipleMatch = options.multipleMatch;
+    this.onLoading = options.onLoading;
+    this.loadingTimeout = options.loadingTimeout;
+  }
+
+  /**
+   * The options of the processor, set by {@link Factory#create} from the configuration. The defaults are the
+   * ones of a processor of a single string dictionary.
+   */
+  static final class Options {
+    private boolean addToRoot;
+    private boolean ignoreMissing;
+    private boolean multipleMatch;
+    // The templates of the dictionary names, null if all the dictionaries are fixed, and the resolver of the
+    // translators of the dictionaries named by the documents
+    private List<TemplateScript.Factory> dictionaryTemplates;
+    private TranslatorResolver resolver;
+    private boolean numberKeys;
+    private KeyExtractor keyExtractor;
+    private Object hitValue;
+    private boolean hitKey;
+    private LoadingPolicy onLoading = LoadingPolicy.BLOCK;
+    private TimeValue loadingTimeout = DEFAULT_LOADING_TIMEOUT;
+
+    Options addToRoot(boolean addToRoot) {
+      this.addToRoot = addToRoot;
+      return this;
+    }
+
+    Options ignoreMissing(boolean ignoreMissing) {
+      this.ignoreMissing = ignoreMissing;
+      return this;
+    }
+
+    Options multipleMatch(boolean multipleMatch) {
+      this.multipleMatch = multipleMatch;
+      return this;
+    }
+
+    Options dynamicDictionaries(List<TemplateScript.Factory> dictionaryTemplates, TranslatorResolver resolver) {
+      this.dictionaryTemplates = dictionaryTemplates;
+      this.resolver = resolver;
+      return this;
+    }
+
+    Options numberKeys(boolean numberKeys) {
+      this.numberKeys = numberKeys;
+      return this;
+    }
+
+    Options keyExtractor(KeyExtractor keyExtractor) {
+      this.keyExtractor = keyExtractor;
+      return this;
+    }
+
+    Options hitValue(Object hitValue) {
+      this.hitValue = hitValue;
+      return this;
+    }
+
+    Options hitKey(boolean hitKey) {
+      this.hitKey = hitKey;
+      return this;
+    }
+
+    Options loading(LoadingPolicy onLoading, TimeValue loadingTimeout) {
+      this.onLoading = onLoading;
+      this.loadingTimeout = loadingTimeout;
+      return this;
+    }
   }
 
   boolean isIgnoreMissing() {
@@ -64,18 +210,48 @@ public class TranslateProcessor extends AbstractProcessor {
 
   @Override
   public IngestDocument execute(IngestDocument ingestDocument) throws Exception {
-    String content = ingestDocument.getFieldValue(field, String.class, ignoreMissing);
+    Object key;
+    if (fields == null) {
+      Object content = readField(ingestDocument);
+      if (numberKeys && (content instanceof Number || content instanceof String) == false)
+        content = readNumberKey(ingestDocument);
+      else if (numberKeys == false && content instanceof String == false)
+        content = ingestDocument.getFieldValue(field, String.class, ignoreMissing);
 
-    if (content == null && ignoreMissing) {
-      return ingestDocument;
-    } else if (content == null) {
-      throw new IllegalArgumentException("field [" + field + "] is null, cannot extract information from the dictionary.");
+      if (content == null && ignoreMissing) {
+        return ingestDocument;
+      } else if (content == null) {
+        throw new IllegalArgumentException("field [" + field + "] is null, cannot extract information from the dictionary.");
+      }
+      if (keyExtractor != null && content instanceof String) {
+        // a value without the key is left as it is
+        content = keyExtractor.extract((String) content);
+        if (content == null)
+          return ingestDocument;
+      }
+      key = content;
+    } else {
+      key = readComponents(ingestDocument);
+      if (key == null)
+        return ingestDocument;
     }
 
-    Object value = translator.lookup(content, multipleMatch);
+    Translator[] current = dictionaryTemplates == null ? translators : resolveTranslators(ingestDocument);
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].isLoaded() == false && waitForDictionary(current[i], i) == false)
+        return ingestDocument;
+    }
+
+    Object value = lookup(current, key);
     if (value == null)
       return ingestDocument;
+    if (hitKey)
+      value = key.toString();
+    else if (hitValue != null)
+      value = hitValue;
 
+    // the dictionary values are written as they are: the maps and lists are shared by the documents and can't be
+    // changed by the later processors
     if (addToRoot && (value instanceof Map)) {
       for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
         ingestDocument.setFieldValue(entry.getKey(), entry.getValue());
@@ -88,6 +264,168 @@ public class TranslateProcessor extends AbstractProcessor {
     return ingestDocument;
   }
 
+
+  // Reads the field without the path parsed by IngestDocument.getFieldValue for every document. Null if the path
+  // can't be followed: IngestDocument is then used to report the error or to read a field of the metadata.
+  private Object readField(IngestDocument ingestDocument) {
+    if (fieldPath == null)
+      return null;
+    Object context = ingestDocument.getSourceAndMetadata();
+    for (String element : fieldPath) {
+      if (context instanceof Map) {
+        context = ((Map<?, ?>) context).get(element);
+      } else if (context instanceof List) {
+        List<?> list = (List<?>) context;
+        int index = NumberTranslator.isInteger(element) ? (int) Math.max(-1, Math.min(Integer.MAX_VALUE,
+                                                                          NumberTranslator.parseInteger(element))) : -1;
+        if (index < 0 || index >= list.size())
+          return null;
+        context = list.get(index);
+      } else {
+        return null;
+      }
+    }
+    return context;
+  }
+
+  // The elements of a path of the source, null for the metadata paths and the paths with empty elements
+  static String[] splitPath(String path) {
+    if (path.startsWith("_ingest") || path.startsWith("_source") || path.startsWith(".") || path.endsWith(".") ||
+        path.contains(".."))
+      return null;
+    return path.split("\\.");
+  }
+
+  // A number or a string, null if the field is missing
+  private Object readNumberKey(IngestDocument ingestDocument) {
+    Object content = ingestDocument.getFieldValue(field, Object.class, ignoreMissing);
+    if (content == null || content instanceof Number || content instanceof String)
+      return content;
+    throw new IllegalArgumentException("field [" + field + "] of type [" + content.getClass().getName() +
+                                       "] is neither a number nor a string");
+  }
+
+  // The values of the fields of the composite key, null if one is missing and ignore_missing is set
+  private Object[] readComponents(IngestDocument ingestDocument) {
+    Object[] components = new Object[fields.size()];
+    for (int i = 0; i < components.length; i++) {
+      components[i] = ingestDocument.getFieldValue(fields.get(i), Object.class, ignoreMissing);
+      if (components[i] == null && ignoreMissing) {
+        return null;
+      } else if (components[i] == null) {
+        throw new IllegalArgumentException("field [" + fields.get(i) + "] is null, cannot extract information from the dictionary.");
+      }
+    }
+    return components;
+  }
+
+  // The translators of the dictionaries, the ones named by the document are created and loaded on first use
+  private Translator[] resolveTranslators(IngestDocument ingestDocument) throws Exception {
+    Translator[] resolved = translators.clone();
+    for (int i = 0; i < resolved.length; i++) {
+      if (dictionaryTemplates[i] == null)
+        continue;
+      String dictionary = ingestDocument.renderTemplate(dictionaryTemplates[i]);
+      if (dictionary.isEmpty())
+        throw new IllegalArgumentException("dictionary [" + dictionaries.get(i) + "] resolved to an empty name");
+      resolved[i] = resolver.resolve(dictionary);
+    }
+    return resolved;
+  }
+
+  // Probes the dictionaries in priority order and stops at the first hit.
+  // With multiple_match the hits of all the dictionaries are merged.
+  private Object lookup(Translator[] translators, Object key) {
+    if (translators.length == 1)
+      return lookup(translators[0], key, multipleMatch);
+    if (multipleMatch == false) {
+      for (Translator translator : translators) {
+        Object value = lookup(translator, key, false);
+        if (value != null)
+          return value;
+      }
+      return null;
+    }
+
+    List<Object> hits = new ArrayList<>(translators.length);
+    boolean allMaps = true;
+    for (Translator translator : translators) {
+      Object value = lookup(translator, key, true);
+      if (value != null) {
+        hits.add(value);
+        allMaps &= value instanceof Map;
+      }
+    }
+    if (hits.size() < 2)
+      return hits.isEmpty() ? null : hits.get(0);
+    return allMaps ? mergeMaps(hits) : flatten(hits);
+  }
+
+  private static Object lookup(Translator translator, Object key, boolean retMultipleValue) {
+    // the type is checked first: the event is not even created if the recording doesn't enable it
+    TranslatorEvents.SlowLookup event = TranslatorEvents.SlowLookup.TYPE.isEnabled() ? new TranslatorEvents.SlowLookup() : null;
+    if (event != null)
+      event.begin();
+    Object value;
+    if (key instanceof Object[])
+      value = ((CompositeTranslator) translator).lookup((Object[]) key, retMultipleValue);
+    else if (key instanceof Number)
+      value = ((NumberTranslator) translator).lookup((Number) key, retMultipleValue);
+    else if (key instanceof String)
+      value = translator.lookup((String) key, retMultipleValue);
+    else
+      value = translator.lookup((CharSequence) key, retMultipleValue);
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.dictionary = translator.getSourceName();
+        event.translator = translator.getClass().getSimpleName();
+        event.key = key instanceof Object[] ? Arrays.toString((Object[]) key) : key.toString();
+        event.hit = value != null;
+        event.commit();
+      }
+    }
+    translator.recordLookup(key, value != null);
+    return value;
+  }
+
+  // The keys of the first dictionaries win
+  private static Map<Object, Object> mergeMaps(List<Object> maps) {
+    Map<Object, Object> merged = new LinkedHashMap<>();
+    for (Object map : maps) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) map).entrySet())
+        merged.putIfAbsent(entry.getKey(), entry.getValue());
+    }
+    return merged;
+  }
+
+  private static List<Object> flatten(List<Object> hits) {
+    List<Object> values = new ArrayList<>();
+    for (Object hit : hits) {
+      if (hit instanceof List)
+        values.addAll((List<?>) hit);
+      else
+        values.add(hit);
+    }
+    return values;
+  }
+
+  // Applies the loading policy, returns false if the document must be skipped.
+  // A dictionary named by the document fails as soon as its first load fails.
+  private boolean waitForDictionary(Translator translator, int index) throws InterruptedException {
+    if (onLoading == LoadingPolicy.SKIP)
+      return false;
+    boolean dynamic = translators[index] == null;
+    if (onLoading == LoadingPolicy.BLOCK && dynamic == false &&
+        translator.awaitLoaded(loadingTimeout.millis(), TimeUnit.MILLISECONDS))
+      return true;
+    if (onLoading == LoadingPolicy.BLOCK && dynamic &&
+        translator.awaitFirstLoad(loadingTimeout.millis(), TimeUnit.MILLISECONDS))
+      return true;
+    throw new IllegalStateException("dictionary [" + (dynamic ? translator.getSourceName() : dictionaries.get(index)) +
+                                    "] is not loaded yet");
+  }
+
   @Override
   public String getType() {
       return TYPE;
@@ -95,47 +433,453 @@ public class TranslateProcessor extends AbstractProcessor {
 
   public static final class Factory implements Processor.Factory {
 
-    private final HashMap<String, Translator> translators;
+    private final ConcurrentMap<String, Translator> translators;
     private final Path translateConfigDirectory;
-    private final Cron cron;
+    private final TranslatorContext context;
+    private final Client client;
+    // The bounded pool where the dictionaries are loaded
+    private final Executor loader;
+    private final ScriptService scriptService;
+    // The translators of the dictionaries named by the documents
+    private final TranslatorCache dynamicTranslators;
 
-    public Factory(Path translateConfigDirectory, Cron cron) {
-      this.translators = new HashMap<String, Translator>();
+    Factory(Path translateConfigDirectory, TranslatorContext context, Client client, Executor loader) {
+      this(translateConfigDirectory, context, client, loader, null,
+           new TranslatorCache(100, -1, TimeValue.timeValueMinutes(30).millis(), loader));
+    }
+
+    Factory(Path translateConfigDirectory, TranslatorContext context, Client client, Executor loader,
+            ScriptService scriptService, TranslatorCache dynamicTranslators) {
+      this.translators = new ConcurrentHashMap<String, Translator>();
       this.translateConfigDirectory = translateConfigDirectory;
-      this.cron = cron;
+      this.context = context;
+      this.client = client;
+      this.loader = loader;
+      this.scriptService = scriptService;
+      this.dynamicTranslators = dynamicTranslators;
     }
 
     @Override
     public TranslateProcessor create(Map<String, Processor.Factory> factories, String tag, String description,
                                      Map<String, Object> config)
       throws Exception {
-      String field = readStringProperty(TYPE, tag, config, "field");
+      String field = readOptionalStringProperty(TYPE, tag, config, "field");
+      List<String> fields = readOptionalList(TYPE, tag, config, "fields");
+      String keySeparator = readStringProperty(TYPE, tag, config, "key_separator", "|");
       String targetField = readOptionalStringProperty(TYPE, tag, config, "target_field");
-      String dictionary = readStringProperty(TYPE, tag, config, "dictionary");
+      Object dictionaryConfig = readObject(TYPE, tag, config, "dictionary");
       boolean ignoreMissing = readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
       boolean addToRoot = readBooleanProperty(TYPE, tag, config, "add_to_root", false);
       boolean multipleMatch = readBooleanProperty(TYPE, tag, config, "multiple_match", false);
       String translatorType = readStringProperty(TYPE, tag, config, "type", "string");
+      boolean hasMaxEdits = config.containsKey("max_edits");
+      int maxEdits = readIntProperty(TYPE, tag, config, "max_edits", 1);
+      String storage = readStringProperty(TYPE, tag, config, "storage", "hash");
+      Object hitValue = config.remove("hit_value");
+      boolean hitKey = readBooleanProperty(TYPE, tag, config, "hit_key", false);
+      Object keyPattern = config.remove("key_pattern");
+      List<String> valueFields = readOptionalList(TYPE, tag, config, "value_fields");
+      String valuePath = readOptionalStringProperty(TYPE, tag, config, "value_path");
+      boolean lazy = readBooleanProperty(TYPE, tag, config, "lazy", false);
+      String onLoading = readStringProperty(TYPE, tag, config, "on_loading", "block");
+      String loadingTimeout = readStringProperty(TYPE, tag, config, "loading_timeout",
+                                                 DEFAULT_LOADING_TIMEOUT.getStringRep());
+
+      LoadingPolicy loadingPolicy;
+      try {
+        loadingPolicy = LoadingPolicy.fromString(onLoading);
+      } catch (IllegalArgumentException e) {
+        throw newConfigurationException(TYPE, tag, "on_loading", e.getMessage());
+      }
+
+      if (field == null && fields == null) {
+        throw newConfigurationException(TYPE, tag, "field", "required property is missing");
+      } else if (field != null && fields != null) {
+        throw newConfigurationException(TYPE, tag, "fields", "Cannot set both `field` and `fields`");
+      } else if (fields != null && fields.isEmpty()) {
+        throw newConfigurationException(TYPE, tag, "fields", "property contains no fields");
+      } else if (fields != null && "string".equalsIgnoreCase(translatorType) == false) {
+        throw newConfigurationException(TYPE, tag, "fields", "composite keys are supported only by the string translator");
+      }
+      if (hasMaxEdits && "fuzzy".equalsIgnoreCase(translatorType) == false) {
+        throw newConfigurationException(TYPE, tag, "max_edits", "property is supported only by the fuzzy translator");
+      } else if (maxEdits < 1 || maxEdits > FuzzyTranslator.MAX_EDITS) {
+        throw newConfigurationException(TYPE, tag, "max_edits",
+            "property must be between 1 and " + FuzzyTranslator.MAX_EDITS + ", but was [" + maxEdits + "]");
+      }
+      if (keySeparator.isEmpty()) {
+        throw newConfigurationException(TYPE, tag, "key_separator", "property is empty");
+      }
+      if ("hash".equals(storage) == false && "compact".equals(storage) == false) {
+        throw newConfigurationException(TYPE, tag, "storage",
+            "property must be `hash` or `compact`, but was [" + storage + "]");
+      } else if ("compact".equals(storage) && "string".equalsIgnoreCase(translatorType) == false) {
+        throw newConfigurationException(TYPE, tag, "storage", "compact storage is supported only by the string translator");
+      } else if ("compact".equals(storage) && fields != null) {
+        throw newConfigurationException(TYPE, tag, "storage", "compact storage is not supported with `fields`");
+      }
+
+      ValueProjection projection = readValueProjection(tag, valueFields, valuePath);
+      boolean set = "set".equalsIgnoreCase(translatorType);
+      if ((hitValue != null || hitKey) && set == false) {
+        throw newConfigurationException(TYPE, tag, hitKey ? "hit_key" : "hit_value", "property is supported only by the set translator");
+      } else if (hitValue != null && hitKey) {
+        throw newConfigurationException(TYPE, tag, "hit_key", "Cannot set both `hit_value` and `hit_key`");
+      } else if (set && projection != null) {
+        throw newConfigurationException(TYPE, tag, valueFields != null ? "value_fields" : "value_path",
+            "the set translator has no values to project");
+      }
+      KeyExtractor keyExtractor = readKeyExtractor(tag, keyPattern, fields);
 
       if (addToRoot && targetField != null) {
           throw newConfigurationException(TYPE, tag, "target_field",
               "Cannot set a target field while also setting `add_to_root` to true");
       }
+      if (targetField == null && fields != null && addToRoot == false) {
+        throw newConfigurationException(TYPE, tag, "target_field", "required property is missing with `fields`");
+      }
       if (targetField == null) {
           targetField = field;
       }
 
+      // a list of dictionaries is probed in priority order
+      List<?> dictionaryConfigs = dictionaryConfig instanceof List ?
+          (List<?>) dictionaryConfig : Collections.singletonList(dictionaryConfig);
+      if (dictionaryConfigs.isEmpty()) {
+        throw newConfigurationException(TYPE, tag, "dictionary", "property contains no dictionaries");
+      }
+
+      List<String> dictionaries = new ArrayList<>(dictionaryConfigs.size());
+      List<Translator> translators = new ArrayList<>(dictionaryConfigs.size());
+      List<TemplateScript.Factory> dictionaryTemplates = new ArrayList<>(dictionaryConfigs.size());
+      for (Object entryConfig : dictionaryConfigs) {
+        // a template names a dictionary per document, created on first use
+        if (entryConfig instanceof String && ((String) entryConfig).contains("{{")) {
+          dictionaries.add((String) entryConfig);
+          translators.add(null);
+          dictionaryTemplates.add(compileTemplate(TYPE, tag, "dictionary", (String) entryConfig, scriptService));
+          continue;
+        }
+        dictionaryTemplates.add(null);
+        DictionarySource source = readDictionarySource(tag, entryConfig);
+        if (fields != null && source instanceof DirectoryDictionarySource) {
+          throw newConfigurationException(TYPE, tag, "fields", "composite keys are not supported by partitioned dictionaries");
+        } else if (("fuzzy".equalsIgnoreCase(translatorType) || "number".equalsIgnoreCase(translatorType) ||
+                    "prefix".equalsIgnoreCase(translatorType) || set) &&
+                   source instanceof DirectoryDictionarySource) {
+          throw newConfigurationException(TYPE, tag, "dictionary", "the " + translatorType.toLowerCase(Locale.ROOT) +
+                                          " translator does not support partitioned dictionaries");
+        } else if ("compact".equals(storage) && source instanceof DirectoryDictionarySource) {
+          throw newConfigurationException(TYPE, tag, "storage", "compact storage does not support partitioned dictionaries");
+        }
+        dictionaries.add(source instanceof FileDictionarySource ? (String) entryConfig : source.getName());
+        translators.add(getTranslator(translatorType, fields == null ? null : keySeparator, maxEdits, storage, projection,
+                                      dictionaries.get(dictionaries.size() - 1), source,
+                                      lazy || source.loadsInBackground()));
+      }
+      Options options = new Options()
+          .addToRoot(addToRoot)
+          .ignoreMissing(ignoreMissing)
+          .multipleMatch(multipleMatch)
+          .numberKeys("number".equalsIgnoreCase(translatorType))
+          .keyExtractor(keyExtractor)
+          .hitValue(set && hitValue == null ? Boolean.TRUE : hitValue)
+          .hitKey(hitKey)
+          .loading(loadingPolicy, TimeValue.parseTimeValue(loadingTimeout, "loading_timeout"));
+      if (translators.contains(null)) {
+        String separator = fields == null ? null : keySeparator;
+        options.dynamicDictionaries(dictionaryTemplates, dictionary ->
+            getDynamicTranslator(translatorType, separator, maxEdits, storage, projection, dictionary));
+      }
+      return new TranslateProcessor(tag, description, field, fields, targetField, dictionaries, translators, options);
+    }
+
+    // The extractor of the key, a regular expression with a group or a map of the delimiters; null if not set
+    private static KeyExtractor readKeyExtractor(String tag, Object keyPattern, List<String> fields) {
+      if (keyPattern == null)
+        return null;
+      if (fields != null)
+        throw newConfigurationException(TYPE, tag, "key_pattern", "property is not supported with `fields`");
+      try {
+        if (keyPattern instanceof String)
+          return KeyExtractor.ofPattern((String) keyPattern);
+        if (keyPattern instanceof Map) {
+          Map<String, Object> delimiters = new HashMap<>((Map<String, Object>) keyPattern);
+          String after = readOptionalStringProperty(TYPE, tag, delimiters, "after");
+          String before = readOptionalStringProperty(TYPE, tag, delimiters, "before");
+          if (delimiters.isEmpty() == false)
+            throw new IllegalArgumentException("unknown delimiters " + delimiters.keySet());
+          return KeyExtractor.ofDelimiters(after, before);
+        }
+      } catch (IllegalArgumentException e) {
+        throw newConfigurationException(TYPE, tag, "key_pattern", e.getMessage());
+      }
+      throw newConfigurationException(TYPE, tag, "key_pattern",
+          "property isn't a string or a map, but of type [" + keyPattern.getClass().getName() + "]");
+    }
+
+    // The projection of the values, null if the values are written whole
+    private static ValueProjection readValueProjection(String tag, List<String> valueFields, String valuePath) {
+      if (valueFields != null && valuePath != null) {
+        throw newConfigurationException(TYPE, tag, "value_path", "Cannot set both `value_fields` and `value_path`");
+      } else if (valueFields != null && valueFields.isEmpty()) {
+        throw newConfigurationException(TYPE, tag, "value_fields", "property contains no fields");
+      }
+      try {
+        if (valueFields != null)
+          return ValueProjection.ofFields(valueFields);
+        return valuePath == null ? null : ValueProjection.ofPath(valuePath);
+      } catch (IllegalArgumentException e) {
+        throw newConfigurationException(TYPE, tag, valueFields != null ? "value_fields" : "value_path", e.getMessage());
+      }
+    }
+
+    private DictionarySource readDictionarySource(String tag, Object dictionaryConfig) {
+      if (dictionaryConfig instanceof String) {
+        return DirectoryDictionarySource.of(translateConfigDirectory, (String) dictionaryConfig);
+      } else if (dictionaryConfig instanceof Map) {
+        return readIndexDictionarySource(tag, (Map<String, Object>) dictionaryConfig);
+      }
+      throw newConfigurationException(TYPE, tag, "dictionary",
+          "property isn't a string, a map or a list, but of type [" +
+          (dictionaryConfig == null ? "null" : dictionaryConfig.getClass().getName()) + "]");
+    }
+
+    // Returns the translator of the dictionary: each dictionary is loaded only once, concurrent requests
+    // of the same dictionary wait for the same load and different dictionaries are loaded in parallel.
+    // The key separator is set only for the composite keys, the edits are used only by the fuzzy translator
+    // and the storage only by the string translator. The translators projecting the values are distinct.
+    Translator getTranslator(String translatorType, String keySeparator, int maxEdits, String storage,
+                             ValueProjection projection, String dictionary, DictionarySource source, boolean lazy)
+        throws Exception {
+      String translatorKey = translatorKey(translatorType, keySeparator, maxEdits, storage, projection, dictionary);
+      Translator translator = translators.get(translatorKey);
+      if (translator == null) {
+        Translator newTranslator = newTranslator(translatorType, keySeparator, maxEdits, storage, projection, source);
+        translator = translators.putIfAbsent(translatorKey, newTranslator);
+        if (translator == null)
+          translator = newTranslator;
+      }
+
+      CompletableFuture<Void> load = translator.loadInBackground(loader);
+      if (lazy == false && translator.isLoaded() == false) {
+        // only the processor being created fails: the translator can be shared by lazy processors and its
+        // monitoring keeps retrying the load
+        if (load.isCompletedExceptionally()) {
+          // a previous first load failed, the source could be fixed in the meantime
+          translator.loadIfChanged();
+          return translator;
+        }
+        try {
+          load.get();
+        } catch (ExecutionException e) {
+          if (translator.isLoaded())
+            return translator;
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+      return translator;
+    }
+
+    // Returns the translator of a dictionary named by a document, loaded in background on first use.
+    // The name must be a file of the translate configuration directory.
+    Translator getDynamicTranslator(String translatorType, String keySeparator, int maxEdits, String storage,
+                                    ValueProjection projection, String dictionary) throws Exception {
+      Path directory = translateConfigDirectory.normalize();
+      Path path = directory.resolve(dictionary).normalize();
+      if (path.startsWith(directory) == false || path.equals(directory)) {
+        throw new IllegalArgumentException("dictionary [" + dictionary + "] is not a file of [" + directory + "]");
+      }
+      return dynamicTranslators.get(translatorKey(translatorType, keySeparator, maxEdits, storage, projection, dictionary), () -> {
+        Translator translator = newTranslator(translatorType, keySeparator, maxEdits, storage, projection,
+                                              new FileDictionarySource(path));
+        translator.loadInBackground(loader);
+        return translator;
+      });
+    }
+
+    // Returns the translator of a dictionary used by the scripts: the translator of a processor if there is one,
+    // otherwise the one of the dictionaries named by the documents, loaded in background on first use
+    Translator getScriptTranslator(String translatorType, String dictionary) throws Exception {
+      Translator translator = translators.get(translatorKey(translatorType, null, 1, "hash", null, dictionary));
+      if (translator == null)
+        translator = translators.get(translatorKey(translatorType, null, 1, "compact", null, dictionary));
+      if (translator == null)
+        translator = getDynamicTranslator(translatorType, null, 1, "hash", null, dictionary);
+      return translator;
+    }
+
+    // The same dictionary can be used with different translator types
+    private static String translatorKey(String translatorType, String keySeparator, int maxEdits, String storage,
+                                        ValueProjection projection, String dictionary) {
+      return translatorType.toLowerCase(Locale.ROOT) +
+             (keySeparator == null ? "" : "[" + keySeparator + "]") +
+             ("fuzzy".equalsIgnoreCase(translatorType) ? "[" + maxEdits + "]" : "") +
+             ("compact".equals(storage) ? "[compact]" : "") +
+             (projection == null ? "" : "[" + projection + "]") + ":" + dictionary;
+    }
+
+    private Translator newTranslator(String translatorType, String keySeparator, int maxEdits, String storage,
+                                     ValueProjection projection, DictionarySource source) throws Exception {
+      TranslatorContext translatorContext = projection == null ? context : context.withProjection(projection);
+      if (keySeparator != null)
+        return new CompositeTranslator(source, translatorContext, keySeparator);
+      if ("fuzzy".equalsIgnoreCase(translatorType))
+        return new FuzzyTranslator(source, translatorContext, maxEdits);
+      if ("compact".equals(storage))
+        return new CompactStringTranslator(source, translatorContext, false);
+      return Translator.Factory.create(translatorType, source, translatorContext, false);
+    }
+
+    // The translators of the node by type and dictionary, including the ones named by the documents
+    Map<String, Translator> getTranslators() {
+      Map<String, Translator> all = new HashMap<>(dynamicTranslators.getTranslators());
+      all.putAll(translators);
+      return Collections.unmodifiableMap(all);
+    }
+
+    TranslatorCache getDynamicTranslators() {
+      return dynamicTranslators;
+    }
+
+    // Stops the monitoring of all the dictionaries
+    void close() {
+      for (Translator translator : translators.values()) {
+        translator.close();
+      }
+      translators.clear();
+      dynamicTranslators.clear();
+    }
+
+    // Loads the dictionaries of a processor configuration on the loader pool without using them, to check
+    // that they can be parsed and that they fit in the heap budget. The other processor options are ignored.
+    CompletableFuture<List<Map<String, Object>>> validate(Map<String, Object> config) {
+      Object dictionaryConfig = readObject(TYPE, null, config, "dictionary");
+      String translatorType = readStringProperty(TYPE, null, config, "type", "string");
+      List<String> fields = readOptionalList(TYPE, null, config, "fields");
+      String keySeparator = readStringProperty(TYPE, null, config, "key_separator", "|");
+      int maxEdits = readIntProperty(TYPE, null, config, "max_edits", 1);
+      String storage = readStringProperty(TYPE, null, config, "storage", "hash");
+      ValueProjection projection = readValueProjection(null, readOptionalList(TYPE, null, config, "value_fields"),
+                                                       readOptionalStringProperty(TYPE, null, config, "value_path"));
+      List<?> dictionaryConfigs = dictionaryConfig instanceof List ?
+          (List<?>) dictionaryConfig : Collections.singletonList(dictionaryConfig);
+      List<DictionarySource> sources = new ArrayList<>(dictionaryConfigs.size());
+      for (Object entryConfig : dictionaryConfigs) {
+        if (entryConfig instanceof String && ((String) entryConfig).contains("{{")) {
+          throw newConfigurationException(TYPE, null, "dictionary",
+              "the template [" + entryConfig + "] names a dictionary per document and cannot be validated");
+        }
+        sources.add(readDictionarySource(null, entryConfig));
+      }
+
+      return CompletableFuture.supplyAsync(() -> {
+        List<Map<String, Object>> results = new ArrayList<>(sources.size());
+        for (DictionarySource source : sources)
+          results.add(validate(translatorType, fields == null ? null : keySeparator, maxEdits, storage, projection, source));
+        return results;
+      }, loader);
+    }
+
+    private Map<String, Object> validate(String translatorType, String keySeparator, int maxEdits, String storage,
+                                         ValueProjection projection, DictionarySource source) {
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("dictionary", source.getName());
+      DictionaryMemory memory = context.newDictionaryMemory(source.getName());
+      long estimatedBytes = 0;
       Translator translator = null;
-      synchronized(this) {
-        translator = translators.get(dictionary);
-        if (translator == null) {
-          translator = Translator.Factory.create(translatorType, translateConfigDirectory.resolve(dictionary), cron);
-          translators.put(dictionary, translator);
-          translator.startMonitoring();
+      try {
+        translator = newTranslator(translatorType, keySeparator, maxEdits, storage, projection, source);
+        Translator.LoadStats stats = translator.validate(memory);
+        result.put("valid", true);
+        result.put("entries", stats.entries);
+        result.put("distinct_values", stats.distinctValues);
+        result.put("dedup_saved_in_bytes", stats.dedupSavedBytes);
+        estimatedBytes = stats.estimatedBytes;
+      } catch (Exception e) {
+        result.put("valid", false);
+        result.put("error", e.getMessage());
+        estimatedBytes = memory.getEstimatedBytes();
+      } finally {
+        // the partitions of a partitioned dictionary account their own heap
+        if (translator != null)
+          translator.releaseMemory();
+      }
+      result.put("estimated_size_in_bytes", estimatedBytes);
+      return result;
+    }
+
+    // Upserts and deletes entries of a dictionary file on the loader pool. The changes are appended to the
+    // journal of the dictionary and then applied to its translators on this node, without reloading them.
+    CompletableFuture<Map<String, Object>> changeEntries(String dictionary, Map<String, Object> upserts,
+                                                         List<String> deletes) {
+      Path directory = translateConfigDirectory.normalize();
+      Path path = directory.resolve(dictionary).normalize();
+      if (path.startsWith(directory) == false || path.equals(directory) || DictionaryJournal.isJournal(path)) {
+        throw new IllegalArgumentException("dictionary [" + dictionary + "] is not a file of [" + directory + "]");
+      }
+
+      return CompletableFuture.supplyAsync(() -> {
+        List<String> changed = new ArrayList<>();
+        List<Translator> translators = new ArrayList<>();
+        for (Map.Entry<String, Translator> entry : getTranslators().entrySet()) {
+          Translator translator = entry.getValue();
+          // the partitions are not reloaded on the changes of their journals, and a key can be routed to another one
+          if (translator.source instanceof DirectoryDictionarySource &&
+              ((DirectoryDictionarySource) translator.source).isPartition(path)) {
+            throw new IllegalArgumentException("dictionary [" + dictionary + "] is a partition of the partitioned dictionary [" +
+                                               translator.source.getName() + "], which does not support live changes");
+          }
+          if (translator.source instanceof FileDictionarySource == false ||
+              ((FileDictionarySource) translator.source).getPath().normalize().equals(path) == false)
+            continue;
+          if (translator.supportsLiveChanges() == false) {
+            throw new IllegalArgumentException("the translator [" + entry.getKey() + "] does not support live changes");
+          }
+          changed.add(entry.getKey());
+          translators.add(translator);
+        }
+
+        DictionaryJournal journal = context.getJournal(path);
+        synchronized (journal) {
+          try {
+            if (translators.isEmpty() && Files.isRegularFile(path) == false) {
+              throw new IllegalArgumentException("dictionary [" + dictionary + "] doesn't exist");
+            }
+            // all the keys are checked before the first change is persisted
+            for (Translator translator : translators) {
+              upserts.keySet().forEach(translator::normalizeKey);
+              deletes.forEach(translator::normalizeKey);
+            }
+            journal.append(upserts, deletes);
+            for (Translator translator : translators) {
+              upserts.forEach(translator::applyUpsert);
+              deletes.forEach(translator::applyDelete);
+            }
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("dictionary", dictionary);
+            result.put("upserted", upserts.size());
+            result.put("deleted", deletes.size());
+            result.put("translators", changed);
+            result.put("journal_size", journal.size());
+            return result;
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
         }
+      }, loader);
+    }
+
+    private DictionarySource readIndexDictionarySource(String tag, Map<String, Object> dictionaryConfig) {
+      String index = readStringProperty(TYPE, tag, dictionaryConfig, "index");
+      String keyField = readStringProperty(TYPE, tag, dictionaryConfig, "key_field");
+      List<String> valueFields = readOptionalList(TYPE, tag, dictionaryConfig, "value_fields");
+      if (dictionaryConfig.isEmpty() == false) {
+        throw newConfigurationException(TYPE, tag, "dictionary",
+            "unknown properties " + dictionaryConfig.keySet());
       }
-      return new TranslateProcessor(tag, description, field, targetField, dictionary,
-                                    addToRoot, ignoreMissing, multipleMatch, translator);
+      return new IndexDictionarySource(client, index, keyField, valueFields);
     }
   }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.SpecialPermission;
+
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+
+
+/**
+ * The functions bound for the ingest scripts by {@link TranslatePainlessExtension}: they look up the dictionaries
+ * with the translators of the translate processors of the plugin that created them, so the scripts share their
+ * memory and their reloads. The maps and lists of the values are copied, so the scripts can modify them.
+ *
+ * A dictionary used by no processor is loaded in background on the first call, as the dictionaries named by
+ * the documents: the lookups return null until it is loaded.
+ */
+public final class TranslateScriptFunctions {
+  // The factory of the translate processors of the plugin, null until the processors are created and once the
+  // plugin is closed
+  private final Supplier<TranslateProcessor.Factory> factory;
+
+  TranslateScriptFunctions(Supplier<TranslateProcessor.Factory> factory) {
+    this.factory = factory;
+  }
+
+  // Returns the value of the key in the string dictionary, null if there is no such key
+  public Object translate(String dictionary, String key) {
+    if (key == null)
+      return null;
+    return lookup(getTranslator("string", dictionary), key, false);
+  }
+
+  // Returns the value of the first subnet of the ip dictionary containing the IP address
+  public Object translateIp(String dictionary, String ip) {
+    return translateIp(dictionary, ip, false);
+  }
+
+  // Returns the value of the first subnet containing the IP address or, with multiple match, the values of all
+  // the subnets containing the address
+  public Object translateIp(String dictionary, String ip, boolean multipleMatch) {
+    if (ip == null)
+      return null;
+    return lookup(getTranslator("ip", dictionary), ip, multipleMatch);
+  }
+
+  private static Object lookup(Translator translator, String key, boolean multipleMatch) {
+    Object value = translator.lookup(key, multipleMatch);
+    translator.recordLookup(key, value != null);
+    return copyOf(value);
+  }
+
+  // The dictionary values are shared and immutable: the script gets its own copy of maps and lists
+  private static Object copyOf(Object value) {
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      Map<Object, Object> copy = new LinkedHashMap<>(map.size() * 4 / 3 + 1);
+      for (Map.Entry<?, ?> entry : map.entrySet())
+        copy.put(entry.getKey(), copyOf(entry.getValue()));
+      return copy;
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      List<Object> copy = new ArrayList<>(list.size());
+      for (Object item : list)
+        copy.add(copyOf(item));
+      return copy;
+    }
+    return value;
+  }
+
+  private Translator getTranslator(String translatorType, String dictionary) {
+    TranslateProcessor.Factory current = factory.get();
+    if (current == null)
+      throw new IllegalStateException("the translate processor is not available on this node");
+    if (dictionary == null)
+      throw new IllegalArgumentException("the dictionary is required");
+
+    // the scripts run without permissions, the translator of a new dictionary starts its monitoring
+    SpecialPermission.check();
+    try {
+      return AccessController.doPrivileged(
+          (PrivilegedExceptionAction<Translator>) () -> current.getScriptTranslator(translatorType, dictionary));
+    } catch (PrivilegedActionException e) {
+      if (e.getException() instanceof RuntimeException)
+        throw (RuntimeException) e.getException();
+      throw new IllegalStateException("unable to load dictionary [" + dictionary + "]", e.getException());
+    }
+  }
+
+}
@@ -20,23 +20,24 @@ package org.elasticsearch.plugin.ingest.translate;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.common.unit.ByteSizeValue;
 
 import java.nio.file.Path;
-import java.nio.file.Files;
-import java.io.InputStream;
 import java.io.IOException;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
 
-import java.security.MessageDigest;
-import java.security.DigestInputStream;
 import java.security.NoSuchAlgorithmException;
-import java.math.BigInteger;
 
 import com.cronutils.model.Cron;
-import com.cronutils.model.time.ExecutionTime;
-import java.time.Duration;
-import java.time.ZonedDateTime;
 
 
 
@@ -44,37 +45,59 @@ import java.time.ZonedDateTime;
 public abstract class Translator {
   protected static final Logger LOGGER = LogManager.getLogger(Translator.class);
 
-  // Dictionary file attributes
-  protected final Path dictionaryPath;
-  private final Cron cron;
-  private String md5;
+  // Dictionary source attributes
+  protected final DictionarySource source;
+  protected final TranslatorContext context;
+  private volatile String md5;
+  private final CountDownLatch loaded;
+  private CompletableFuture<Void> firstLoad;
+  private volatile LoadStats stats;
+  // The sketches of the looked up keys, created on the first lookup recorded
+  private volatile KeySketch sketch;
+  // The heap accounted for the current dictionary, guarded by loadMutex
+  private DictionaryMemory memory;
+  // Serializes the loads: the monitor of the translator is held while the monitoring is stopped
+  private final Object loadMutex = new Object();
 
-  // Monitoring Thread attributes
+  // Monitoring attributes
   private volatile boolean monitoringStarted;
-  private Thread monitoringThread;
-  private final ReentrantReadWriteLock rwlock = new ReentrantReadWriteLock();
-  protected final Lock rlock = rwlock.readLock();
-  protected final Lock wlock = rwlock.writeLock();
+  // True once the translator is discarded: a load still running gives back its heap, and the monitoring doesn't start
+  private volatile boolean closed;
+  // Not reentrant: unlike ReentrantReadWriteLock the read lock doesn't allocate the hold count of the threads
+  private final StampedLock stampedLock = new StampedLock();
+  protected final Lock rlock = stampedLock.asReadLock();
+  // Records the holds in the JFR events
+  protected final Lock wlock;
 
 
   Translator(Path dictionaryPath, Cron cron)  throws IOException, NoSuchAlgorithmException {
-    LOGGER.info("Creating Translator for [{}]", dictionaryPath.getFileName().toString());
+    this(new FileDictionarySource(dictionaryPath), new TranslatorContext(cron), true);
+  }
+
+  Translator(DictionarySource source, TranslatorContext context, boolean loadNow)
+      throws IOException, NoSuchAlgorithmException {
+    LOGGER.info("Creating Translator for [{}]", source.getName());
 
-    // Initialize dictionary file attributes
-    this.dictionaryPath = dictionaryPath;
-    this.cron = cron;
+    // Initialize dictionary source attributes
+    this.source = source;
+    this.context = context;
+    this.wlock = new TranslatorEvents.RecordingWriteLock(stampedLock.asWriteLock(), source.getName());
     this.md5 = "";
+    this.loaded = new CountDownLatch(1);
 
-    // Initialize Monitoring Thread attributes
+    // Initialize monitoring attributes
     this.monitoringStarted = false;
-    this.monitoringThread = null;
+
+    // Otherwise the first load is done through loadInBackground
+    if (loadNow == false)
+      return;
 
     // Loading dictionary
     try {
       checkMD5AndLoadDictionary();
     } catch(Exception e) {
       LOGGER.error(() -> new ParameterizedMessage("Failed to create Translator for [{}] with exception",
-                                                  dictionaryPath.getFileName().toString()), e);
+                                                  source.getName()), e);
       throw e;
     }
   }
@@ -83,80 +106,284 @@ public abstract class Translator {
     return lookup(item, false);
   }
   public abstract Object lookup(String item, boolean retMultipleValue);
-  protected abstract void loadDictionary() throws IOException;
+  // Looks up a key extracted from a longer string, see KeyExtractor. The translators that can read the key
+  // in place override it, the others look up a copy.
+  public Object lookup(CharSequence item, boolean retMultipleValue) {
+    return lookup(item.toString(), retMultipleValue);
+  }
+  // Counts the lookup in the sketches of the keys, if they are enabled. The key is the one of the lookup.
+  void recordLookup(Object key, boolean hit) {
+    if (context.sketchesKeys() == false)
+      return;
+    KeySketch current = sketch;
+    if (current == null)
+      current = newSketch();
+    current.record(key, hit, foldsKeys());
+  }
+
+  private synchronized KeySketch newSketch() {
+    if (sketch == null)
+      sketch = context.newKeySketch();
+    return sketch;
+  }
+
+  // The sketches of the looked up keys, null if no lookup was recorded
+  KeySketch getSketch() {
+    return sketch;
+  }
+
+  // True if the lookups compare the keys folded by StringTranslator.fold: the sketches count them folded too
+  boolean foldsKeys() {
+    return false;
+  }
+
+  // True if the entries of the loaded dictionary can be changed one by one
+  boolean supportsLiveChanges() {
+    return false;
+  }
+
+  // The key as compared by the lookups. IllegalArgumentException if the translator can't hold the key.
+  String normalizeKey(String key) {
+    throw new UnsupportedOperationException("the translator of [" + source.getName() + "] does not support live changes");
+  }
+
+  // Changes an entry of the loaded dictionary under the write lock, returns the change of its estimated heap
+  protected long putEntry(String key, Object value) {
+    throw new UnsupportedOperationException("the translator of [" + source.getName() + "] does not support live changes");
+  }
+
+  protected long removeEntry(String key) {
+    throw new UnsupportedOperationException("the translator of [" + source.getName() + "] does not support live changes");
+  }
 
   public void finalize() {
-    LOGGER.info("Finalize Translator for [{}]", dictionaryPath.getFileName().toString());
+    LOGGER.info("Finalize Translator for [{}]", source.getName());
+  }
+
+  public boolean isLoaded() {
+    return loaded.getCount() == 0;
+  }
+
+  public boolean awaitLoaded(long timeout, TimeUnit unit) throws InterruptedException {
+    return loaded.await(timeout, unit);
+  }
+
+  // As awaitLoaded, but returns false as soon as the first load in background fails
+  boolean awaitFirstLoad(long timeout, TimeUnit unit) throws InterruptedException {
+    CompletableFuture<Void> load;
+    synchronized (this) {
+      load = firstLoad;
+    }
+    if (load == null)
+      return awaitLoaded(timeout, unit);
+    try {
+      load.get(timeout, unit);
+      return true;
+    } catch (ExecutionException | TimeoutException e) {
+      // the monitoring could have loaded it in the meantime
+      return isLoaded();
+    }
+  }
+
+  // Loads the dictionary on the executor, the monitoring is started when the first load completes.
+  // Concurrent callers share the same load.
+  synchronized CompletableFuture<Void> loadInBackground(Executor executor) {
+    if (firstLoad == null) {
+      firstLoad = CompletableFuture.runAsync(() -> {
+        try {
+          checkMD5AndLoadDictionary();
+        } catch(Exception e) {
+          LOGGER.error(() -> new ParameterizedMessage("Failed to load Translator for [{}] with exception",
+                                                      source.getName()), e);
+          throw new CompletionException(e);
+        }
+      }, executor).whenComplete((result, e) -> startMonitoring());
+    }
+    return firstLoad;
+  }
+
+  // Loads the dictionary now if it changed, without the monitoring
+  void loadIfChanged() throws IOException, NoSuchAlgorithmException {
+    checkMD5AndLoadDictionary();
+  }
+
+  // As loadIfChanged, with the checksum of the source already computed by the caller
+  void loadIfChanged(String checksum) throws IOException, NoSuchAlgorithmException {
+    synchronized (loadMutex) {
+      if (closed == false)
+        loadIfChangedLocked(checksum);
+    }
   }
 
   private void checkMD5AndLoadDictionary() throws IOException, NoSuchAlgorithmException {
-    if (Files.exists(dictionaryPath) == false) {
-      throw new IllegalStateException(
-          "the file [" + dictionaryPath + "] doesn't exist");
+    synchronized (loadMutex) {
+      checkMD5AndLoadDictionaryLocked();
     }
+  }
 
-    String newmd5 = calculateMD5();
+  private void checkMD5AndLoadDictionaryLocked() throws IOException, NoSuchAlgorithmException {
+    if (closed)
+      return;
+    TranslatorEvents.DictionaryCheck check = new TranslatorEvents.DictionaryCheck();
+    check.begin();
+    String newmd5 = checksum();
+    check.end();
+    if (check.shouldCommit()) {
+      check.dictionary = source.getName();
+      check.changed = newmd5.equals(this.md5) == false;
+      check.commit();
+    }
     LOGGER.debug("Check MD5 for [{}]. Current MD5: {}, Checked MD5: {}",
-                 dictionaryPath.getFileName().toString(), md5, newmd5);
+                 source.getName(), md5, newmd5);
+    loadIfChangedLocked(newmd5);
+  }
 
+  private void loadIfChangedLocked(String newmd5) throws IOException, NoSuchAlgorithmException {
     if (newmd5.equals(this.md5))
       return;
-    loadDictionary();
+    DictionaryMemory newMemory = context.newDictionaryMemory(source.getName());
+    try {
+      this.stats = load(newMemory);
+    } catch (Exception e) {
+      // the current dictionary, if any, keeps serving
+      newMemory.release();
+      throw e;
+    }
+    if (memory != null)
+      memory.release();
+    memory = newMemory;
     this.md5 = newmd5;
+    if (closed) {
+      // discarded during the load: nothing uses the new dictionary
+      releaseMemory();
+      return;
+    }
+    LOGGER.info("Dictionary for [{}] loaded with {} entries and {} distinct values in {}, deduplication saved {}",
+                source.getName(), stats.entries, stats.distinctValues, new ByteSizeValue(stats.estimatedBytes),
+                new ByteSizeValue(stats.dedupSavedBytes));
+    loaded.countDown();
   }
 
-  private String calculateMD5() throws IOException, NoSuchAlgorithmException {
-    MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-    InputStream inputStream = Files.newInputStream(dictionaryPath);
-    DigestInputStream digestInputStream = new DigestInputStream(inputStream, messageDigest);
-    byte[] buffer = new byte[8192];
-    while (digestInputStream.read(buffer) > -1) {}
-    MessageDigest digest = digestInputStream.getMessageDigest();
-    digestInputStream.close();
-    byte[] md5 = digest.digest();
-    return new BigInteger(1, md5).toString(16);
+  // The checksum of the source, computed once for each check of the dictionary
+  protected String checksum() throws IOException, NoSuchAlgorithmException {
+    return source.checksum();
   }
 
+  // Reads the source and builds the dictionary, the heap is accounted on the memory of the load
+  protected abstract LoadStats load(DictionaryMemory memory) throws IOException, NoSuchAlgorithmException;
+
+  // Applies a change already appended to the journal of the dictionary. A translator that is not loaded
+  // reads it from the journal when it loads; a load in progress is waited, it could have read the journal
+  // before the change. The value is projected and made immutable as the loaded ones, the processor writes it as it is.
+  void applyUpsert(String key, Object value) {
+    Object projected = new ValueInterner().intern(context.project(value));
+    synchronized (loadMutex) {
+      if (memory != null)
+        memory.adjust(projected == null ? removeEntry(key) : putEntry(key, projected));
+    }
+  }
+
+  void applyDelete(String key) {
+    synchronized (loadMutex) {
+      if (memory != null)
+        memory.adjust(removeEntry(key));
+    }
+  }
 
-  // Thread methods
-  public void startMonitoring() {
-    if (monitoringStarted)
+  // Rewrites the dictionary file with the changes of its journal once they are enough
+  private void compactJournalIfNeeded() throws IOException {
+    if (supportsLiveChanges() == false || source instanceof FileDictionarySource == false)
       return;
+    DictionaryJournal journal = context.getJournal(((FileDictionarySource) source).getPath());
+    if (journal.size() >= context.getJournalCompactThreshold())
+      journal.compact(context, this::normalizeKey);
+  }
 
-    // This is the Monitoring Thread
-    monitoringThread = new Thread(dictionaryPath.getFileName().toString()) {
-      public void run() {
-        LOGGER.info("Monitoring Thread [{}] started", Thread.currentThread().getName());
-        while(!isInterrupted()) {
-          try {
-            ZonedDateTime now = ZonedDateTime.now();
-            ExecutionTime executionTime = ExecutionTime.forCron(cron);
-            Duration timeToNextExecution = executionTime.timeToNextExecution(now).get();
-            Thread.sleep(timeToNextExecution.toMillis());
-            checkMD5AndLoadDictionary();
-          } catch(InterruptedException e) {
-              Thread.currentThread().interrupt();
-          } catch(Exception e) {
-            LOGGER.error(() -> new ParameterizedMessage("Monitoring Thread [{}] exception",
-                                                        Thread.currentThread().getName()), e);
-          }
-        }
-        LOGGER.info("Monitoring Thread [{}] stopped", Thread.currentThread().getName());
-      }
-    };
+  // Loads the dictionary of a translator that is not used by any processor: the heap is accounted
+  // only during the load.
+  LoadStats validate(DictionaryMemory memory) throws IOException, NoSuchAlgorithmException {
+    try {
+      return load(memory);
+    } finally {
+      memory.release();
+    }
+  }
+
+  // Discards the translator: stops the monitoring, also if the first load starts it later, and gives back
+  // the heap, also the one of a load still running
+  void close() {
+    closed = true;
+    stopMonitoring();
+    releaseMemory();
+  }
+
+  // Gives back the heap of the current dictionary when the translator is discarded
+  void releaseMemory() {
+    synchronized (loadMutex) {
+      if (memory != null)
+        memory.release();
+      memory = null;
+    }
+  }
 
-    monitoringThread.start();
+  // The checksum of the loaded dictionary
+  String getChecksum() {
+    return md5;
+  }
+
+  String getSourceName() {
+    return source.getName();
+  }
+
+  // The statistics of the last load, null if the dictionary is not loaded yet
+  LoadStats getStats() {
+    return stats;
+  }
+
+  static final class LoadStats {
+    final int entries;
+    final int distinctValues;
+    // Estimated heap saved by sharing the equal values
+    final long dedupSavedBytes;
+    // Estimated heap of the dictionary
+    final long estimatedBytes;
+    final long loadedAtMillis;
+
+    LoadStats(int entries, int distinctValues, long dedupSavedBytes, long estimatedBytes, long loadedAtMillis) {
+      this.entries = entries;
+      this.distinctValues = distinctValues;
+      this.dedupSavedBytes = dedupSavedBytes;
+      this.estimatedBytes = estimatedBytes;
+      this.loadedAtMillis = loadedAtMillis;
+    }
+  }
+
+
+  // The monitoring methods: the changes of the dictionary are checked by the schedule shared by the translators
+  // of the context
+  public synchronized void startMonitoring() {
+    if (monitoringStarted || closed)
+      return;
+    context.getMonitor().add(this);
     monitoringStarted = true;
   }
 
-  public void stopMonitoring() {
-    if ( monitoringStarted && (monitoringThread != null) ) {
-      monitoringThread.interrupt();
-      try {
-        monitoringThread.join();
-      } catch(InterruptedException e) { }
+  // Once stopped the dictionary is not checked anymore, a check still running is waited
+  public synchronized void stopMonitoring() {
+    if (monitoringStarted) {
+      context.getMonitor().remove(this);
       monitoringStarted = false;
-      monitoringThread = null;
+    }
+  }
+
+  // A check of the schedule: compacts the journal, then reloads the dictionary if it changed
+  void check() {
+    try {
+      if (isLoaded())
+        compactJournalIfNeeded();
+      checkMD5AndLoadDictionary();
+    } catch(Exception e) {
+      LOGGER.error(() -> new ParameterizedMessage("Monitoring of [{}] exception", source.getName()), e);
     }
   }
 
@@ -166,8 +393,23 @@ public abstract class Translator {
 
   public static final class Factory {
     public static Translator create(String type, Path dictionaryPath, Cron cron) throws IOException, NoSuchAlgorithmException {
-      if ("string".equalsIgnoreCase(type)) return new StringTranslator(dictionaryPath, cron);
-      if ("ip".equalsIgnoreCase(type))     return new IpTranslator(dictionaryPath, cron);
+      return create(type, new FileDictionarySource(dictionaryPath), new TranslatorContext(cron), true);
+    }
+
+    static Translator create(String type, DictionarySource source, TranslatorContext context, boolean loadNow)
+        throws IOException, NoSuchAlgorithmException {
+      if (source instanceof DirectoryDictionarySource) {
+        PartitionedTranslator translator =
+            new PartitionedTranslator(type, (DirectoryDictionarySource) source, context);
+        if (loadNow)
+          translator.loadIfChanged();
+        return translator;
+      }
+      if ("string".equalsIgnoreCase(type)) return new StringTranslator(source, context, loadNow);
+      if ("ip".equalsIgnoreCase(type))     return new IpTranslator(source, context, loadNow);
+      if ("number".equalsIgnoreCase(type)) return new NumberTranslator(source, context, loadNow);
+      if ("prefix".equalsIgnoreCase(type)) return new PrefixTranslator(source, context, loadNow);
+      if ("set".equalsIgnoreCase(type))    return new SetTranslator(source, context, loadNow);
 
       throw new IllegalStateException("Invalid translator type: [" + type + "]");
     }
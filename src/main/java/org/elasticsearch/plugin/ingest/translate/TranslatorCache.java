@@ -0,0 +1,216 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+
+
+/**
+ * The translators of the dictionaries named by the documents, created on first use.
+ *
+ * The cache is bounded by the number of translators and by their estimated heap, the least recently used are
+ * evicted first, and the translators not used for a while are evicted anyway: the memory follows the active
+ * dictionaries rather than the configured ones. An evicted translator stops its monitoring and gives back
+ * its heap to the circuit breaker on the loader pool, as the monitoring could be loading the dictionary;
+ * a first load still running gives back its heap when it completes. A document still using it completes the lookup.
+ */
+final class TranslatorCache {
+  private static final Logger LOGGER = LogManager.getLogger(TranslatorCache.class);
+  // The last access is updated at most once per this interval, to keep the lookups off the shared counters
+  private static final long ACCESS_RESOLUTION_MILLIS = 1000;
+
+  private static final class Entry {
+    final Translator translator;
+    volatile long lastAccessMillis;
+
+    Entry(Translator translator, long now) {
+      this.translator = translator;
+      this.lastAccessMillis = now;
+    }
+  }
+
+  private final int maxDictionaries;
+  // The heap budget of the cached dictionaries, -1 if unbounded
+  private final long maxBytes;
+  private final long expireAfterAccessMillis;
+  private final LongSupplier clock;
+  // Where the evicted translators are stopped
+  private final Executor cleaner;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  // The translators being created, the concurrent requests of the same key wait for the same creation
+  private final ConcurrentHashMap<String, CompletableFuture<Entry>> creating = new ConcurrentHashMap<>();
+  // The next sweep of the idle and over budget translators
+  private final AtomicLong nextSweepMillis = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  TranslatorCache(int maxDictionaries, long maxBytes, long expireAfterAccessMillis, Executor cleaner) {
+    this(maxDictionaries, maxBytes, expireAfterAccessMillis, cleaner, System::currentTimeMillis);
+  }
+
+  TranslatorCache(int maxDictionaries, long maxBytes, long expireAfterAccessMillis, Executor cleaner,
+                  LongSupplier clock) {
+    this.maxDictionaries = maxDictionaries;
+    this.maxBytes = maxBytes;
+    this.expireAfterAccessMillis = expireAfterAccessMillis;
+    this.cleaner = cleaner;
+    this.clock = clock;
+  }
+
+  // Returns the translator of the key, the new translator is created only once
+  Translator get(String key, Callable<Translator> create) throws Exception {
+    long now = clock.getAsLong();
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = create(key, create, now);
+    } else if (now - entry.lastAccessMillis >= ACCESS_RESOLUTION_MILLIS) {
+      entry.lastAccessMillis = now;
+    }
+
+    long next = nextSweepMillis.get();
+    if (now >= next && nextSweepMillis.compareAndSet(next, now + ACCESS_RESOLUTION_MILLIS)) {
+      synchronized (this) {
+        evict(now, key);
+      }
+    }
+    return entry.translator;
+  }
+
+  // Creates the translator without holding the monitor of the cache: the creation of the other keys and the
+  // evictions don't wait for it
+  private Entry create(String key, Callable<Translator> create, long now) throws Exception {
+    CompletableFuture<Entry> created = new CompletableFuture<>();
+    CompletableFuture<Entry> pending = creating.putIfAbsent(key, created);
+    if (pending != null) {
+      try {
+        return pending.get();
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+    }
+    try {
+      // created by another request since the first lookup
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        entry = new Entry(create.call(), now);
+        synchronized (this) {
+          entries.put(key, entry);
+          evict(now, key);
+        }
+      }
+      created.complete(entry);
+      return entry;
+    } catch (Exception e) {
+      created.completeExceptionally(e);
+      throw e;
+    } finally {
+      creating.remove(key, created);
+    }
+  }
+
+  // Evicts the idle translators, then the least recently used ones until the cache fits its bounds.
+  // The translator of the current document is never evicted.
+  private void evict(long now, String current) {
+    // the access times are read once, they change while the candidates are sorted
+    Map<String, Long> candidates = new HashMap<>();
+    long bytes = 0;
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      long lastAccessMillis = entry.getValue().lastAccessMillis;
+      if (now - lastAccessMillis >= expireAfterAccessMillis && entry.getKey().equals(current) == false) {
+        remove(entry.getKey(), "idle");
+      } else {
+        bytes += estimatedBytes(entry.getValue().translator);
+        if (entry.getKey().equals(current) == false)
+          candidates.put(entry.getKey(), lastAccessMillis);
+      }
+    }
+    if (entries.size() <= maxDictionaries && (maxBytes < 0 || bytes <= maxBytes))
+      return;
+
+    List<Map.Entry<String, Long>> leastRecentlyUsed = new ArrayList<>(candidates.entrySet());
+    leastRecentlyUsed.sort(Map.Entry.comparingByValue());
+    for (Map.Entry<String, Long> candidate : leastRecentlyUsed) {
+      if (entries.size() <= maxDictionaries && (maxBytes < 0 || bytes <= maxBytes))
+        break;
+      Entry entry = entries.get(candidate.getKey());
+      if (entry == null)
+        continue;
+      bytes -= estimatedBytes(entry.translator);
+      remove(candidate.getKey(), entries.size() > maxDictionaries ? "max_dictionaries" : "max_size");
+    }
+  }
+
+  private void remove(String key, String reason) {
+    Entry entry = entries.remove(key);
+    if (entry == null)
+      return;
+    evictions.incrementAndGet();
+    LOGGER.info("Evicting the translator [{}] from the dynamic dictionaries: {}", key, reason);
+    cleaner.execute(entry.translator::close);
+  }
+
+  private static long estimatedBytes(Translator translator) {
+    Translator.LoadStats stats = translator.getStats();
+    return stats == null ? 0 : stats.estimatedBytes;
+  }
+
+  Map<String, Translator> getTranslators() {
+    Map<String, Translator> translators = new HashMap<>();
+    for (Map.Entry<String, Entry> entry : entries.entrySet())
+      translators.put(entry.getKey(), entry.getValue().translator);
+    return Collections.unmodifiableMap(translators);
+  }
+
+  long getEstimatedBytes() {
+    long bytes = 0;
+    for (Entry entry : entries.values())
+      bytes += estimatedBytes(entry.translator);
+    return bytes;
+  }
+
+  int getMaxDictionaries() {
+    return maxDictionaries;
+  }
+
+  long getEvictions() {
+    return evictions.get();
+  }
+
+  // Evicts all the translators
+  synchronized void clear() {
+    for (String key : new ArrayList<>(entries.keySet())) {
+      Entry entry = entries.remove(key);
+      entry.translator.close();
+    }
+  }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import com.cronutils.model.Cron;
+
+
+
+/**
+ * The node level resources shared by all the translators, and the projection of the values of the translators
+ * created with the context.
+ */
+final class TranslatorContext {
+  // The pool where the dictionaries are parsed and built, null to use only the calling thread
+  private final ForkJoinPool buildPool;
+  // The breaker accounting the heap of the dictionaries, set by the node after the plugin creation
+  private final Supplier<CircuitBreaker> breaker;
+  // The heap budget of a single dictionary, -1 if unbounded
+  private final long maxDictionaryBytes;
+  // The number of changes of a journal that triggers its compaction
+  private final int journalCompactThreshold;
+  // One lookup in the interval is counted in the sketches of the keys, 0 if the sketches are disabled
+  private final int sketchSampleInterval;
+  // The number of keys reported by the sketches
+  private final int sketchTopKeys;
+  // The journals of the dictionary files, shared by the translators of the same file
+  private final ConcurrentHashMap<Path, DictionaryJournal> journals;
+  // The projection of the values set by the processor, null to keep the values whole
+  private final ValueProjection projection;
+  // The schedule checking the changes of the dictionaries on the cron
+  private final DictionaryMonitor monitor;
+
+  TranslatorContext(Cron cron) {
+    this(cron, null);
+  }
+
+  TranslatorContext(Cron cron, ForkJoinPool buildPool) {
+    this(cron, buildPool, () -> null, -1L);
+  }
+
+  TranslatorContext(Cron cron, ForkJoinPool buildPool, Supplier<CircuitBreaker> breaker, long maxDictionaryBytes) {
+    this(cron, buildPool, breaker, maxDictionaryBytes, 10000);
+  }
+
+  TranslatorContext(Cron cron, ForkJoinPool buildPool, Supplier<CircuitBreaker> breaker, long maxDictionaryBytes,
+                    int journalCompactThreshold) {
+    this(cron, buildPool, breaker, maxDictionaryBytes, journalCompactThreshold, 0, 10);
+  }
+
+  TranslatorContext(Cron cron, ForkJoinPool buildPool, Supplier<CircuitBreaker> breaker, long maxDictionaryBytes,
+                    int journalCompactThreshold, int sketchSampleInterval, int sketchTopKeys) {
+    this.buildPool = buildPool;
+    this.breaker = breaker;
+    this.maxDictionaryBytes = maxDictionaryBytes;
+    this.journalCompactThreshold = journalCompactThreshold;
+    this.sketchSampleInterval = sketchSampleInterval;
+    this.sketchTopKeys = sketchTopKeys;
+    this.journals = new ConcurrentHashMap<>();
+    this.projection = null;
+    this.monitor = new DictionaryMonitor(cron);
+  }
+
+  private TranslatorContext(TranslatorContext context, ValueProjection projection) {
+    this.buildPool = context.buildPool;
+    this.breaker = context.breaker;
+    this.maxDictionaryBytes = context.maxDictionaryBytes;
+    this.journalCompactThreshold = context.journalCompactThreshold;
+    this.sketchSampleInterval = context.sketchSampleInterval;
+    this.sketchTopKeys = context.sketchTopKeys;
+    this.journals = context.journals;
+    this.projection = projection;
+    this.monitor = context.monitor;
+  }
+
+  // The same resources, for the translators projecting their values
+  TranslatorContext withProjection(ValueProjection projection) {
+    return new TranslatorContext(this, projection);
+  }
+
+  // The value as kept by the translators, null if the entry must be dropped
+  Object project(Object value) {
+    return projection == null || value == null ? value : projection.project(value);
+  }
+
+  boolean hasProjection() {
+    return projection != null;
+  }
+
+  DictionaryMonitor getMonitor() {
+    return monitor;
+  }
+
+  // Starts the accounting of a new load of the dictionary
+  DictionaryMemory newDictionaryMemory(String dictionary) {
+    CircuitBreaker circuitBreaker = breaker.get();
+    return new DictionaryMemory(dictionary,
+                                circuitBreaker == null ? new NoopCircuitBreaker("translate") : circuitBreaker,
+                                maxDictionaryBytes);
+  }
+
+  DictionaryJournal getJournal(Path dictionaryPath) {
+    return journals.computeIfAbsent(dictionaryPath.toAbsolutePath().normalize(), DictionaryJournal::new);
+  }
+
+  int getJournalCompactThreshold() {
+    return journalCompactThreshold;
+  }
+
+  boolean sketchesKeys() {
+    return sketchSampleInterval > 0;
+  }
+
+  // The sketches of the keys of a translator, null if they are disabled
+  KeySketch newKeySketch() {
+    return sketchesKeys() ? new KeySketch(sketchSampleInterval, sketchTopKeys) : null;
+  }
+
+  int getParallelism() {
+    return buildPool == null ? 1 : buildPool.getParallelism();
+  }
+
+  // Runs the action for each index in [0, size) on the build pool.
+  // An UncheckedIOException thrown by the action is rethrown as IOException.
+  void parallelFor(int size, IntConsumer action) throws IOException {
+    try {
+      if (buildPool == null || size < 2) {
+        IntStream.range(0, size).forEach(action);
+        return;
+      }
+      // a parallel stream started by a task of the pool runs on the same pool
+      buildPool.submit(() -> IntStream.range(0, size).parallel().forEach(action)).get();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while building the dictionary");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UncheckedIOException)
+        throw ((UncheckedIOException) cause).getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IOException(cause);
+    }
+  }
+
+}
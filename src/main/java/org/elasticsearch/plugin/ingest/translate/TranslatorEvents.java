@@ -0,0 +1,199 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+
+
+/**
+ * The JDK Flight Recorder events of the translators. JFR records them only while a recording enables them:
+ * otherwise they cost a check of the event type, and the slow lookups not even a clock read.
+ *
+ * The checks, the loads and the swaps are enabled by the default settings of a recording. The slow lookups
+ * must be enabled explicitly, e.g. in a {@code .jfc} file, and only the lookups longer than the threshold,
+ * 1 ms by default, are recorded.
+ */
+final class TranslatorEvents {
+
+  private TranslatorEvents() {}
+
+  @Name("org.elasticsearch.ingest.translate.DictionaryCheck")
+  @Label("Dictionary Check")
+  @Description("Checksum of a dictionary source, to check if it changed")
+  @Category({ "Elasticsearch", "Ingest Translate" })
+  @StackTrace(false)
+  static final class DictionaryCheck extends Event {
+    @Label("Dictionary")
+    String dictionary;
+
+    @Label("Changed")
+    boolean changed;
+  }
+
+  @Name("org.elasticsearch.ingest.translate.DictionaryParse")
+  @Label("Dictionary Parse")
+  @Description("Read of the entries of a dictionary source, with the replay of its journal and the interning of its values")
+  @Category({ "Elasticsearch", "Ingest Translate" })
+  @StackTrace(false)
+  static final class DictionaryParse extends Event {
+    @Label("Dictionary")
+    String dictionary;
+
+    @Label("Entries")
+    int entries;
+
+    @Label("Values Size")
+    @Description("Estimated heap of the distinct values")
+    @DataAmount
+    long valuesBytes;
+  }
+
+  @Name("org.elasticsearch.ingest.translate.DictionaryBuild")
+  @Label("Dictionary Build")
+  @Description("Build of the lookup structure of a dictionary, including the swap with the current one")
+  @Category({ "Elasticsearch", "Ingest Translate" })
+  @StackTrace(false)
+  static final class DictionaryBuild extends Event {
+    @Label("Dictionary")
+    String dictionary;
+
+    @Label("Entries")
+    int entries;
+
+    @Label("Estimated Size")
+    @Description("Estimated heap of the dictionary")
+    @DataAmount
+    long estimatedBytes;
+  }
+
+  @Name("org.elasticsearch.ingest.translate.DictionarySwap")
+  @Label("Dictionary Swap")
+  @Description("Hold of the write lock of a translator, blocking its lookups: the swap of a new dictionary or a live change")
+  @Category({ "Elasticsearch", "Ingest Translate" })
+  @StackTrace(false)
+  static final class DictionarySwap extends Event {
+    @Label("Dictionary")
+    String dictionary;
+  }
+
+  @Name("org.elasticsearch.ingest.translate.SlowLookup")
+  @Label("Slow Lookup")
+  @Description("Lookup of a key longer than the threshold")
+  @Category({ "Elasticsearch", "Ingest Translate" })
+  @Enabled(false)
+  @Threshold("1 ms")
+  static final class SlowLookup extends Event {
+    static final EventType TYPE = EventType.getEventType(SlowLookup.class);
+
+    @Label("Dictionary")
+    String dictionary;
+
+    @Label("Translator")
+    String translator;
+
+    @Label("Key")
+    String key;
+
+    @Label("Hit")
+    boolean hit;
+  }
+
+  /**
+   * The write lock of a translator recording how long it is held. The lock is exclusive: the event of the
+   * current hold is guarded by the lock itself.
+   */
+  static final class RecordingWriteLock implements Lock {
+    private final Lock lock;
+    private final String dictionary;
+    private DictionarySwap hold;
+
+    RecordingWriteLock(Lock lock, String dictionary) {
+      this.lock = lock;
+      this.dictionary = dictionary;
+    }
+
+    private void begin() {
+      DictionarySwap event = new DictionarySwap();
+      if (event.isEnabled()) {
+        event.begin();
+        hold = event;
+      }
+    }
+
+    @Override
+    public void lock() {
+      lock.lock();
+      begin();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+      lock.lockInterruptibly();
+      begin();
+    }
+
+    @Override
+    public boolean tryLock() {
+      if (lock.tryLock() == false)
+        return false;
+      begin();
+      return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+      if (lock.tryLock(time, unit) == false)
+        return false;
+      begin();
+      return true;
+    }
+
+    @Override
+    public void unlock() {
+      DictionarySwap event = hold;
+      hold = null;
+      if (event != null)
+        event.end();
+      lock.unlock();
+      if (event != null && event.shouldCommit()) {
+        event.dictionary = dictionary;
+        event.commit();
+      }
+    }
+
+    @Override
+    public Condition newCondition() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
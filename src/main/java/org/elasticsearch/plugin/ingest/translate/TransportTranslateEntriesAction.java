@@ -0,0 +1,92 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+
+
+/**
+ * Applies the changes of {@link TranslateEntriesAction} on each ingest node, with the processor factory of the
+ * node. A node that fails to apply them is reported as a failure of the response.
+ */
+public final class TransportTranslateEntriesAction extends TransportNodesAction<TranslateEntriesAction.Request,
+    TranslateEntriesAction.Response, TranslateEntriesAction.NodeRequest, TranslateEntriesAction.NodeResponse> {
+
+  private final TranslateProcessor.Factory factory;
+
+  @Inject
+  public TransportTranslateEntriesAction(ThreadPool threadPool, ClusterService clusterService,
+                                         TransportService transportService, ActionFilters actionFilters,
+                                         TranslateProcessor.Factory factory) {
+    super(TranslateEntriesAction.NAME, threadPool, clusterService, transportService, actionFilters,
+          TranslateEntriesAction.Request::new, TranslateEntriesAction.NodeRequest::new, ThreadPool.Names.MANAGEMENT,
+          TranslateEntriesAction.NodeResponse.class);
+    this.factory = factory;
+  }
+
+  @Override
+  protected TranslateEntriesAction.Response newResponse(TranslateEntriesAction.Request request,
+                                                        List<TranslateEntriesAction.NodeResponse> responses,
+                                                        List<FailedNodeException> failures) {
+    return new TranslateEntriesAction.Response(clusterService.getClusterName(), responses, failures);
+  }
+
+  @Override
+  protected TranslateEntriesAction.NodeRequest newNodeRequest(TranslateEntriesAction.Request request) {
+    return new TranslateEntriesAction.NodeRequest(request);
+  }
+
+  @Override
+  protected TranslateEntriesAction.NodeResponse newNodeResponse(StreamInput in) throws IOException {
+    return new TranslateEntriesAction.NodeResponse(in);
+  }
+
+  // The changes are applied on the loader pool, this management thread waits for them
+  @Override
+  protected TranslateEntriesAction.NodeResponse nodeOperation(TranslateEntriesAction.NodeRequest request) {
+    Map<String, Object> result;
+    try {
+      result = factory.changeEntries(request.dictionary, new LinkedHashMap<>(request.upserts),
+                                     new ArrayList<>(request.deletes)).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while changing the dictionary [" + request.dictionary + "]", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException("unable to change the dictionary [" + request.dictionary + "]", e.getCause());
+    }
+    return new TranslateEntriesAction.NodeResponse(clusterService.localNode(), result);
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * Canonicalizes the values of a dictionary while it is loaded, so that equal values share a single instance.
+ *
+ * Maps and lists are interned deeply and replaced by unmodifiable copies: a shared value must never be
+ * changed by a pipeline. The table lives only for a load and can be used by several threads.
+ */
+final class ValueInterner {
+  // The distinct values of the entries and the distinct members of the maps and lists
+  private final ConcurrentHashMap<Object, Object> values = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Object, Object> members = new ConcurrentHashMap<>();
+  // Estimated heap of the values as parsed and of the distinct values kept
+  private final LongAdder sourceBytes = new LongAdder();
+  private final LongAdder retainedBytes = new LongAdder();
+
+  // Returns the canonical instance of the value of an entry
+  Object intern(Object value) {
+    if (value == null)
+      return null;
+    sourceBytes.add(RamUsageEstimator.sizeOfObject(value));
+    Object copy = copyOf(value);
+    Object canonical = values.putIfAbsent(copy, copy);
+    if (canonical != null)
+      return canonical;
+    retainedBytes.add(RamUsageEstimator.sizeOfObject(copy));
+    return copy;
+  }
+
+  private Object internMember(Object member) {
+    if (member == null)
+      return null;
+    Object copy = copyOf(member);
+    Object canonical = members.putIfAbsent(copy, copy);
+    return canonical == null ? copy : canonical;
+  }
+
+  // An immutable copy whose members are interned, the value itself if it is not a container
+  private Object copyOf(Object value) {
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      Map<Object, Object> copy = new LinkedHashMap<>(map.size() * 4 / 3 + 1);
+      for (Map.Entry<?, ?> entry : map.entrySet())
+        copy.put(internMember(entry.getKey()), internMember(entry.getValue()));
+      return Collections.unmodifiableMap(copy);
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      List<Object> copy = new ArrayList<>(list.size());
+      for (Object item : list)
+        copy.add(internMember(item));
+      return Collections.unmodifiableList(copy);
+    }
+    return value;
+  }
+
+  int distinctValues() {
+    return values.size();
+  }
+
+  // Estimated heap of the distinct values
+  long retainedBytes() {
+    return retainedBytes.sum();
+  }
+
+  // Estimated heap saved by sharing the equal values. Members shared by distinct values are
+  // counted for each of them, so the saving is underestimated.
+  long savedBytes() {
+    return Math.max(0L, sourceBytes.sum() - retainedBytes.sum());
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright [2018] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+/**
+ * The part of the object values of a dictionary written by a processor, set by {@code value_fields} or
+ * {@code value_path}. The values are projected when the dictionary is loaded, so the translator keeps only the
+ * projected values and the processor writes them as they are.
+ */
+final class ValueProjection {
+  // The paths of the fields kept by value_fields, each one split on the dots
+  private final List<String[]> fields;
+  // The path of the value kept by value_path, null with value_fields
+  private final String[] path;
+  // The options as set, the projection in the key of the translator
+  private final String description;
+
+  private ValueProjection(List<String[]> fields, String[] path, String description) {
+    this.fields = fields;
+    this.path = path;
+    this.description = description;
+  }
+
+  // Keeps only the fields of the object values, a dotted field is kept in its parent objects
+  static ValueProjection ofFields(List<String> valueFields) {
+    List<String[]> fields = new ArrayList<>(valueFields.size());
+    for (String field : valueFields)
+      fields.add(split(field));
+    return new ValueProjection(fields, null, "value_fields=" + valueFields);
+  }
+
+  // Replaces the object values with the value at the dotted path
+  static ValueProjection ofPath(String valuePath) {
+    return new ValueProjection(null, split(valuePath), "value_path=" + valuePath);
+  }
+
+  private static String[] split(String path) {
+    if (path.isEmpty() || path.startsWith(".") || path.endsWith(".") || path.contains(".."))
+      throw new IllegalArgumentException("[" + path + "] is not a valid path");
+    return path.split("\\.");
+  }
+
+  // The projected value, null if the value has none of the fields or not the path: the entry is then dropped
+  Object project(Object value) {
+    if (path != null)
+      return get(value, path);
+
+    if (value instanceof Map == false)
+      return null;
+    Map<String, Object> projected = new LinkedHashMap<>();
+    for (String[] field : fields) {
+      Object member = get(value, field);
+      if (member == null)
+        continue;
+      Map<String, Object> parent = projected;
+      for (int i = 0; i < field.length - 1; i++) {
+        // a parent kept whole by another field is copied, the source values are never changed
+        Object child = parent.get(field[i]);
+        Map<String, Object> copy = child instanceof Map ? new LinkedHashMap<>((Map<String, Object>) child) : new LinkedHashMap<>();
+        parent.put(field[i], copy);
+        parent = copy;
+      }
+      parent.put(field[field.length - 1], member);
+    }
+    return projected.isEmpty() ? null : projected;
+  }
+
+  // The member at the path, null if the path can't be followed
+  private static Object get(Object value, String[] path) {
+    Object current = value;
+    for (String element : path) {
+      if (current instanceof Map == false)
+        return null;
+      current = ((Map<?, ?>) current).get(element);
+    }
+    return current;
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright [2017] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.test.ESTestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.Charset;
+import javax.management.ObjectName;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.parser.CronParser;
+import static com.cronutils.model.CronType.QUARTZ;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Measures the bytes allocated by the lookups and by the processor: the lookups must allocate nothing, whether the
+ * key is a hit, a miss or not a valid key at all, and the processor nothing more than the write of the document.
+ *
+ * The operations are warmed up and then measured with the allocation counter of the thread; the number of
+ * operations is {@code -Dtests.translate.allocation.iterations}. The test is skipped if the JVM doesn't count
+ * the allocations.
+ */
+public class TranslateProcessorAllocationTests extends ESTestCase {
+  private static final int ITERATIONS = Integer.getInteger("tests.translate.allocation.iterations", 100000);
+
+  private interface Operation {
+    void run(int i) throws Exception;
+  }
+
+  private Cron cron1sec;
+
+  public TranslateProcessorAllocationTests() {
+    String strCron1sec = "*/1 * * * * ?";
+    CronParser unixCronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(QUARTZ));
+    cron1sec = unixCronParser.parse(strCron1sec);
+  }
+
+  private Path setupDictionary(String dictionary, List<String> lines) throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Files.createDirectories(translateConfigDirectory);
+    Path dictionaryPath = translateConfigDirectory.resolve(dictionary);
+    Files.write(dictionaryPath, lines, Charset.forName("UTF-8"));
+    return dictionaryPath;
+  }
+
+  public void testStringTranslator() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 1000; i++)
+      lines.add("host-" + i + ": \"owner " + i + "\"");
+    Translator translator = Translator.Factory.create("string", setupDictionary("hosts.yml", lines), cron1sec);
+    String[] hits = { "host-1", "HOST-500", "Host-999" };
+    String[] misses = { "host-1000", "unknown", "" };
+    CharSequence extracted = new KeyExtractor.Span("name=HOST-42;", 5, 12);
+
+    assertThat(translator.lookup("HOST-500"), is("owner 500"));
+    assertThat(translator.lookup(extracted, false), is("owner 42"));
+    assertNoAllocation("string hit", i -> translator.lookup(hits[i % hits.length], false));
+    assertNoAllocation("string extracted hit", i -> translator.lookup(extracted, false));
+    assertNoAllocation("string miss", i -> translator.lookup(misses[i % misses.length], false));
+  }
+
+  public void testIpTranslator() throws Exception {
+    List<String> lines = Arrays.asList(
+      "\"10.0.0.0/8\": private",
+      "\"10.1.0.0/16\": datacenter",
+      "\"10.1.2.3\": gateway",
+      "\"192.168.0.0/16\": home"
+    );
+    Translator translator = Translator.Factory.create("ip", setupDictionary("subnets.yml", lines), cron1sec);
+    String[] hits = { "10.1.2.3", "10.200.0.1", "192.168.1.1" };
+    String[] misses = { "8.8.8.8", "172.16.0.1", "255.255.255.255" };
+    String[] invalid = { "not-an-ip", "10.1.2", "10.1.2.300", "" };
+
+    assertThat(translator.lookup("10.1.2.3", true), is(Arrays.asList("private", "datacenter", "gateway")));
+    assertThat(translator.lookup("not-an-ip", true), nullValue());
+    assertNoAllocation("ip hit", i -> translator.lookup(hits[i % hits.length], false));
+    assertNoAllocation("ip multiple match", i -> translator.lookup(hits[i % hits.length], true));
+    assertNoAllocation("ip miss", i -> translator.lookup(misses[i % misses.length], true));
+    assertNoAllocation("ip invalid", i -> translator.lookup(invalid[i % invalid.length], true));
+  }
+
+  public void testNumberTranslator() throws Exception {
+    NumberTranslator translator = (NumberTranslator)
+        Translator.Factory.create("number", setupDictionary("ports.yml", Arrays.asList("22: ssh", "443: https")), cron1sec);
+    Number[] keys = { 22L, 443, 80L, 8080 };
+    String[] invalid = { "ssh", "22.5", "99999999999999999999" };
+
+    assertNoAllocation("number lookup", i -> translator.lookup(keys[i % keys.length], false));
+    assertNoAllocation("number invalid", i -> translator.lookup(invalid[i % invalid.length], false));
+  }
+
+  public void testProcessorMiss() throws Exception {
+    Translator translator = Translator.Factory.create("ip", setupDictionary("subnets.yml",
+                                                      Collections.singletonList("\"10.0.0.0/8\": private")), cron1sec);
+    TranslateProcessor processor = new TranslateProcessor(randomAlphaOfLength(10), randomAlphaOfLength(10), "source.ip",
+                                                          "source.network", "subnets.yml", false, false, false, translator);
+    IngestDocument[] documents = new IngestDocument[] { document("8.8.8.8"), document("not-an-ip") };
+
+    assertNoAllocation("processor miss", i -> processor.execute(documents[i % documents.length]));
+    assertThat(documents[0].hasField("source.network"), is(false));
+  }
+
+  public void testProcessorHit() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 100; i++)
+      lines.add("\"10.0." + i + ".0/24\": { name: \"subnet " + i + "\", tags: [ internal, \"zone " + (i % 4) + "\" ] }");
+    Translator translator = Translator.Factory.create("ip", setupDictionary("subnets.yml", lines), cron1sec);
+    TranslateProcessor processor = new TranslateProcessor(randomAlphaOfLength(10), randomAlphaOfLength(10), "source.ip",
+                                                          "source.network", "subnets.yml", false, false, false, translator);
+    IngestDocument[] documents = new IngestDocument[] { document("10.0.1.1"), document("10.0.42.7") };
+    Object value = translator.lookup("10.0.1.1");
+
+    // the dictionary value is written as it is: the processor allocates only what writing any value allocates
+    double write = measureAllocation("document write",
+                                     i -> documents[i % documents.length].setFieldValue("source.network", value));
+    double hit = measureAllocation("processor hit", i -> processor.execute(documents[i % documents.length]));
+    assertThat("[processor hit] allocates " + hit + " bytes/op, the write " + write, hit, lessThan(write + 1.0));
+    assertThat(documents[1].getFieldValue("source.network", Object.class), sameInstance(translator.lookup("10.0.42.7")));
+  }
+
+  private static IngestDocument document(String ip) {
+    Map<String, Object> source = new HashMap<>();
+    source.put("source", new HashMap<>(Collections.singletonMap("ip", ip)));
+    return new IngestDocument(source, new HashMap<>());
+  }
+
+  private void assertNoAllocation(String name, Operation operation) throws Exception {
+    double bytesPerOperation = measureAllocation(name, operation);
+    // the counter itself allocates a few hundred bytes
+    assertThat("[" + name + "] allocates " + bytesPerOperation + " bytes/op", bytesPerOperation, lessThan(1.0));
+  }
+
+  // The bytes allocated by an operation once warmed up
+  private double measureAllocation(String name, Operation operation) throws Exception {
+    for (int i = 0; i < ITERATIONS; i++)
+      operation.run(i);
+
+    long before = allocatedBytes();
+    assumeTrue("the JVM doesn't count the allocated bytes", before >= 0);
+    for (int i = 0; i < ITERATIONS; i++)
+      operation.run(i);
+    long allocated = allocatedBytes() - before;
+
+    double bytesPerOperation = (double) allocated / ITERATIONS;
+    logger.info("[{}] {} operations allocated {} bytes, {} bytes/op", name, ITERATIONS, allocated, bytesPerOperation);
+    return bytesPerOperation;
+  }
+
+  // The bytes allocated by the current thread, -1 if the JVM does not track them
+  private static long allocatedBytes() {
+    try {
+      return (Long) ManagementFactory.getPlatformMBeanServer().invoke(
+          new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME), "getThreadAllocatedBytes",
+          new Object[] { Thread.currentThread().getId() }, new String[] { long.class.getName() });
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright [2017] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.RandomDocumentPicks;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.Charset;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.parser.CronParser;
+import static com.cronutils.model.CronType.QUARTZ;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class TranslateProcessorForCompactStringTranslatorTests extends ESTestCase {
+
+  private static List<String> dictionary_lines = Arrays.asList(
+    "host-a: owner a",
+    "host-ab: owner ab",
+    "Host-B: owner b",
+    "host-c: owner a",
+    "\"caf\u00e9\": coffee",
+    "\"\u00e9t\u00e9\uD83D\uDE00\": summer"
+  );
+
+  private Cron cron1sec;
+
+  public TranslateProcessorForCompactStringTranslatorTests() {
+    String strCron1sec = "*/1 * * * * ?";
+    CronParser unixCronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(QUARTZ));
+    cron1sec = unixCronParser.parse(strCron1sec);
+  }
+
+  private Path setupDictionary(String dictionary, List<String> lines) throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Files.createDirectories(translateConfigDirectory);
+    Path dictionaryPath = translateConfigDirectory.resolve(dictionary);
+    Files.write(dictionaryPath, lines, Charset.forName("UTF-8"));
+    return dictionaryPath;
+  }
+
+  private Translator compactTranslator(Path dictionaryPath) throws Exception {
+    return new CompactStringTranslator(new FileDictionarySource(dictionaryPath), new TranslatorContext(cron1sec), true);
+  }
+
+  public void testLookup() throws Exception {
+    Translator translator = compactTranslator(setupDictionary("hosts.yml", dictionary_lines));
+
+    assertThat(translator.lookup("host-a"), is("owner a"));
+    assertThat(translator.lookup("host-ab"), is("owner ab"));
+    assertThat(translator.lookup("HOST-b"), is("owner b"));
+    assertThat(translator.lookup("CAF\u00c9"), is("coffee"));
+    assertThat(translator.lookup("\u00e9t\u00e9\uD83D\uDE00"), is("summer"));
+    // only the whole keys match
+    assertThat(translator.lookup("host-"), nullValue());
+    assertThat(translator.lookup("host-abc"), nullValue());
+    assertThat(translator.lookup(""), nullValue());
+    // the equal values are stored once
+    assertThat(translator.lookup("host-c"), sameInstance(translator.lookup("host-a")));
+  }
+
+  public void testSameLookupsAsStringTranslator() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 5000; i++)
+      lines.add("\"" + randomAlphaOfLengthBetween(1, 12) + i + "\": \"value " + randomIntBetween(0, 100) + "\"");
+    Path dictionaryPath = setupDictionary("random.yml", lines);
+    Translator compact = compactTranslator(dictionaryPath);
+    Translator hash = Translator.Factory.create("string", dictionaryPath, cron1sec);
+
+    for (int i = 0; i < 5000; i++) {
+      String key = randomBoolean() ? lines.get(i).substring(1, lines.get(i).indexOf('"', 1)) : randomAlphaOfLengthBetween(0, 13);
+      if (randomBoolean())
+        key = key.toUpperCase(Locale.ROOT);
+      assertThat(key, compact.lookup(key), is(hash.lookup(key)));
+    }
+  }
+
+  public void testProcessorWithCompactStorage() throws Exception {
+    Path dictionaryPath = setupDictionary("hosts.yml", dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "host.name");
+      config.put("target_field", "host.owner");
+      config.put("dictionary", "hosts.yml");
+      config.put("storage", "compact");
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      IngestDocument ingestDocument = RandomDocumentPicks.randomIngestDocument(random(),
+          Collections.singletonMap("host", Collections.singletonMap("name", "HOST-AB")));
+      assertThat(processor.execute(ingestDocument).getFieldValue("host.owner", String.class), is("owner ab"));
+      assertThat(factory.getTranslators().get("string[compact]:hosts.yml") instanceof CompactStringTranslator, is(true));
+
+      config = new HashMap<>();
+      config.put("field", "host.ip");
+      config.put("dictionary", "hosts.yml");
+      config.put("type", "ip");
+      config.put("storage", "compact");
+      Map<String, Object> ipConfig = config;
+      Exception exception = expectThrows(Exception.class,
+                                         () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), ipConfig));
+      assertThat(exception.getMessage(), containsString("compact storage is supported only by the string translator"));
+
+      config = new HashMap<>();
+      config.put("field", "host.name");
+      config.put("dictionary", "hosts.yml");
+      config.put("storage", "packed");
+      Map<String, Object> unknownConfig = config;
+      exception = expectThrows(Exception.class,
+                               () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), unknownConfig));
+      assertThat(exception.getMessage(), containsString("property must be `hash` or `compact`"));
+
+      Files.createDirectories(dictionaryPath.resolveSibling("parts"));
+      config = new HashMap<>();
+      config.put("field", "host.name");
+      config.put("dictionary", "parts");
+      config.put("storage", "compact");
+      Map<String, Object> partitioned = config;
+      exception = expectThrows(Exception.class,
+                               () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), partitioned));
+      assertThat(exception.getMessage(), containsString("does not support partitioned dictionaries"));
+    } finally {
+      factory.close();
+    }
+  }
+
+}
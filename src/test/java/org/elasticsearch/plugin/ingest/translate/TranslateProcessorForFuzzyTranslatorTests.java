@@ -0,0 +1,142 @@
+/*
+ * Copyright [2017] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.RandomDocumentPicks;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.Charset;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.parser.CronParser;
+import static com.cronutils.model.CronType.QUARTZ;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.containsString;
+
+public class TranslateProcessorForFuzzyTranslatorTests extends ESTestCase {
+
+  private static List<String> dictionary_lines = Arrays.asList(
+    "web-server-01: Frontend",
+    "web-server-02: Frontend",
+    "db-server-01: Database",
+    "jsmith: John Smith",
+    "jsmyth: Jane Smyth",
+    "\"\": Empty"
+  );
+
+  private Cron cron1sec;
+
+  public TranslateProcessorForFuzzyTranslatorTests() {
+    String strCron1sec = "*/1 * * * * ?";
+    CronParser unixCronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(QUARTZ));
+    cron1sec = unixCronParser.parse(strCron1sec);
+  }
+
+  private Path setupDictionary(String dictionary, List<String> lines) throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Files.createDirectories(translateConfigDirectory);
+    Path dictionaryPath = translateConfigDirectory.resolve(dictionary);
+    Files.write(dictionaryPath, lines, Charset.forName("UTF-8"));
+    return dictionaryPath;
+  }
+
+  private Translator newTranslator(Path dictionaryPath, int maxEdits) throws Exception {
+    Translator translator = new FuzzyTranslator(new FileDictionarySource(dictionaryPath), new TranslatorContext(cron1sec),
+                                                maxEdits);
+    translator.loadIfChanged();
+    return translator;
+  }
+
+  public void testClosestMatch() throws Exception {
+    Translator translator = newTranslator(setupDictionary("hosts.yml", dictionary_lines), 1);
+
+    assertThat(translator.lookup("WEB-server-01", false), is("Frontend"));
+    assertThat(translator.lookup("web-sever-01", false), is("Frontend"));
+    assertThat(translator.lookup("db-server-011", false), is("Database"));
+    assertThat(translator.lookup("bd-server-01", false), is("Database"));
+    assertThat(translator.lookup("x", false), is("Empty"));
+    assertThat(translator.lookup("db-srver-1", false), nullValue());
+    // the exact match wins over the keys one edit away
+    assertThat(translator.lookup("jsmyth", false), is("Jane Smyth"));
+    // among the equally close keys the first in key order wins
+    assertThat(translator.lookup("jsmath", false), is("John Smith"));
+
+    translator = newTranslator(setupDictionary("hosts.yml", dictionary_lines), 2);
+    assertThat(translator.lookup("db-srver-1", false), is("Database"));
+  }
+
+  public void testMultipleMatch() throws Exception {
+    Translator translator = newTranslator(setupDictionary("hosts.yml", dictionary_lines), 2);
+
+    // from the closest to the farthest
+    assertThat(translator.lookup("jsmyth", true), is(Arrays.asList("Jane Smyth", "John Smith")));
+    assertThat(translator.lookup("web-server-0", true), is(Arrays.asList("Frontend", "Frontend")));
+    assertThat(translator.lookup("unknown-host", true), nullValue());
+  }
+
+  public void testProcessorWithFuzzyType() throws Exception {
+    Path dictionaryPath = setupDictionary("hosts.yml", dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "host.name");
+      config.put("target_field", "host.role");
+      config.put("dictionary", "hosts.yml");
+      config.put("type", "fuzzy");
+      config.put("max_edits", 2);
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      IngestDocument ingestDocument = RandomDocumentPicks.randomIngestDocument(random(),
+          Collections.singletonMap("host", Collections.singletonMap("name", "db-srver-1")));
+      assertThat(processor.execute(ingestDocument).getFieldValue("host.role", String.class), is("Database"));
+
+      config = new HashMap<>();
+      config.put("field", "host.name");
+      config.put("dictionary", "hosts.yml");
+      config.put("type", "fuzzy");
+      config.put("max_edits", 3);
+      Map<String, Object> invalidEdits = config;
+      Exception exception = expectThrows(Exception.class,
+                                         () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), invalidEdits));
+      assertThat(exception.getMessage(), containsString("must be between 1 and 2"));
+
+      config = new HashMap<>();
+      config.put("field", "host.name");
+      config.put("dictionary", "hosts.yml");
+      config.put("max_edits", 1);
+      Map<String, Object> notFuzzy = config;
+      exception = expectThrows(Exception.class,
+                               () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), notFuzzy));
+      assertThat(exception.getMessage(), containsString("supported only by the fuzzy translator"));
+    } finally {
+      factory.close();
+    }
+  }
+
+}
@@ -22,6 +22,7 @@ import org.elasticsearch.ingest.RandomDocumentPicks;
 import org.elasticsearch.test.ESTestCase;
 
 import java.util.Map;
+import java.util.HashMap;
 import java.util.Collections;
 import java.util.List;
 import java.util.Arrays;
@@ -120,6 +121,18 @@ public class TranslateProcessorForIpTranslatorTests extends ESTestCase {
     assertThat(translator.isMonitoringStarted(), is(false));
   }
 
+  public void testBareAddressKey() throws Exception {
+    Translator translator = new IpTranslator(setupDictionary("hosts.yml", Arrays.asList(
+      "\"10.10.22.1\": gateway",
+      "\"10.10.22.0/24\": lab"
+    )), cron1sec);
+    // a key without prefix length is a single host
+    assertThat(IpTranslator.cidr("10.10.22.1"), is("10.10.22.1/32"));
+    assertThat(IpTranslator.cidr("10.10.22.0/24"), is("10.10.22.0/24"));
+    assertThat(translator.lookup("10.10.22.1"), is("gateway"));
+    assertThat(translator.lookup("10.10.22.2"), is("lab"));
+  }
+
   public void testNoMatch() throws Exception {
     IngestDocument originalIngestDocument =
       RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("source_field", "192.168.1.1"));
@@ -270,4 +283,58 @@ public class TranslateProcessorForIpTranslatorTests extends ESTestCase {
     assertThat(expectedTargetValue.get(2).get("label"), is("GW for Ingest Lab 1"));
     assertThat(expectedTargetValue.get(2).get("host"),  is("gw.lab1.it"));
   }
+
+  public void testScriptFunctions() throws Exception {
+    Path dictionaryPath = setupDictionary("test.yml", multiple_match_complex_dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      TranslateScriptFunctions functions = new TranslateScriptFunctions(() -> factory);
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("dictionary", "test.yml");
+      config.put("type", "ip");
+      factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      assertThat(((Map<String, Object>) functions.translateIp("test.yml", "10.10.1.1")).get("label"),
+                 is("Internal Net"));
+      List<Map<String, Object>> values = (List<Map<String, Object>>) functions.translateIp("test.yml", "10.10.22.1", true);
+      assertThat(values.size(), is(3));
+      assertThat(values.get(2).get("label"), is("GW for Ingest Lab 1"));
+      assertThat(functions.translateIp("test.yml", "192.168.1.1"), is((Object) null));
+      assertThat(functions.translateIp("test.yml", "not-an-ip", true), is((Object) null));
+      // the scripts share the translator of the processor
+      assertThat(factory.getTranslators().keySet(), equalTo(Collections.singleton("ip:test.yml")));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testKeyPattern() throws Exception {
+    Path dictionaryPath = setupDictionary("test.yml", multiple_match_complex_dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> delimiters = new HashMap<>();
+      delimiters.put("after", "src=");
+      delimiters.put("before", ":");
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", "test.yml");
+      config.put("type", "ip");
+      config.put("key_pattern", delimiters);
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      IngestDocument ingestDocument = RandomDocumentPicks.randomIngestDocument(random(),
+          Collections.singletonMap("source_field", "proto=tcp src=10.10.1.1:443 dst=10.10.22.1:80"));
+      processor.execute(ingestDocument);
+      assertThat(ingestDocument.getFieldValue("target_field.label", String.class), is("Internal Net"));
+
+      ingestDocument = RandomDocumentPicks.randomIngestDocument(random(),
+          Collections.singletonMap("source_field", "proto=tcp src=not-an-ip:443"));
+      processor.execute(ingestDocument);
+      assertThat(ingestDocument.hasField("target_field"), is(false));
+    } finally {
+      factory.close();
+    }
+  }
 }
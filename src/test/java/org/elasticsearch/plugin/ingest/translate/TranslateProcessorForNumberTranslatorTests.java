@@ -0,0 +1,165 @@
+/*
+ * Copyright [2017] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.RandomDocumentPicks;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.Charset;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.parser.CronParser;
+import static com.cronutils.model.CronType.QUARTZ;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.containsString;
+
+public class TranslateProcessorForNumberTranslatorTests extends ESTestCase {
+
+  private static List<String> dictionary_lines = Arrays.asList(
+    "22: ssh",
+    "443: https",
+    "0: reserved",
+    "-1: unknown",
+    "9223372036854775807: max",
+    "64512:",
+    "  asn_type: private",
+    "  range: 16 bits"
+  );
+
+  private Cron cron1sec;
+
+  public TranslateProcessorForNumberTranslatorTests() {
+    String strCron1sec = "*/1 * * * * ?";
+    CronParser unixCronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(QUARTZ));
+    cron1sec = unixCronParser.parse(strCron1sec);
+  }
+
+  private Path setupDictionary(String dictionary, List<String> lines) throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Files.createDirectories(translateConfigDirectory);
+    Path dictionaryPath = translateConfigDirectory.resolve(dictionary);
+    Files.write(dictionaryPath, lines, Charset.forName("UTF-8"));
+    return dictionaryPath;
+  }
+
+  public void testLookup() throws Exception {
+    NumberTranslator translator =
+      (NumberTranslator) Translator.Factory.create("number", setupDictionary("ports.yml", dictionary_lines), cron1sec);
+
+    assertThat(translator.lookup(443L), is("https"));
+    assertThat(translator.lookup(0L), is("reserved"));
+    assertThat(translator.lookup(-1L), is("unknown"));
+    assertThat(translator.lookup(Long.MAX_VALUE), is("max"));
+    assertThat(translator.lookup(80L), nullValue());
+    assertThat(translator.lookup(Integer.valueOf(22), false), is("ssh"));
+    assertThat(translator.lookup(Double.valueOf(443.0), false), is("https"));
+    assertThat(translator.lookup(Double.valueOf(443.5), false), nullValue());
+    assertThat(translator.lookup("+22"), is("ssh"));
+    assertThat(translator.lookup("22.0"), nullValue());
+    assertThat(translator.lookup("ssh"), nullValue());
+    assertThat(translator.lookup(""), nullValue());
+    assertThat(translator.lookup("-"), nullValue());
+    assertThat(translator.lookup("9223372036854775808"), nullValue());
+  }
+
+  public void testInvalidKey() throws Exception {
+    Path dictionaryPath = setupDictionary("ports.yml", Arrays.asList("22: ssh", "http: web"));
+    Exception exception = expectThrows(Exception.class, () -> Translator.Factory.create("number", dictionaryPath, cron1sec));
+    assertThat(exception.getMessage(), containsString("the key [http]"));
+  }
+
+  public void testTableCapacity() {
+    assertThat(DictionaryMemory.tableCapacity(0, "ports.yml"), is(4));
+    assertThat(DictionaryMemory.tableCapacity(3, "ports.yml"), is(8));
+    assertThat(DictionaryMemory.tableCapacity(4, "ports.yml"), is(8));
+    assertThat(DictionaryMemory.tableCapacity(1 << 29, "ports.yml"), is(DictionaryMemory.MAX_TABLE_CAPACITY));
+    // the doubling of the entries overflows an int
+    Exception exception = expectThrows(IllegalArgumentException.class,
+                                       () -> DictionaryMemory.tableCapacity((1 << 29) + 1, "ports.yml"));
+    assertThat(exception.getMessage(), containsString("the dictionary [ports.yml] has too many entries [536870913]"));
+    expectThrows(IllegalArgumentException.class, () -> DictionaryMemory.tableCapacity(Integer.MAX_VALUE, "ports.yml"));
+  }
+
+  public void testLiveChanges() throws Exception {
+    NumberTranslator translator =
+      (NumberTranslator) Translator.Factory.create("number", setupDictionary("ports.yml", dictionary_lines), cron1sec);
+
+    // enough upserts to grow the table, then deletes that shift back the colliding keys
+    for (int port = 1000; port < 1100; port++)
+      translator.applyUpsert(Integer.toString(port), "port " + port);
+    translator.applyUpsert("+443", "tls");
+    translator.applyUpsert("0", "zero");
+    for (int port = 1000; port < 1100; port += 2)
+      translator.applyDelete(Integer.toString(port));
+    translator.applyDelete("-1");
+
+    for (int port = 1000; port < 1100; port++)
+      assertThat(translator.lookup((long) port), is(port % 2 == 0 ? null : "port " + port));
+    assertThat(translator.lookup(443L), is("tls"));
+    assertThat(translator.lookup(0L), is("zero"));
+    assertThat(translator.lookup(-1L), nullValue());
+    assertThat(translator.lookup(22L), is("ssh"));
+    assertThat(translator.lookup(Long.MAX_VALUE), is("max"));
+
+    Exception exception = expectThrows(IllegalArgumentException.class, () -> translator.normalizeKey("http"));
+    assertThat(exception.getMessage(), containsString("is not an integer"));
+    assertThat(translator.normalizeKey("+0443"), is("443"));
+  }
+
+  public void testProcessorWithNumberType() throws Exception {
+    Path dictionaryPath = setupDictionary("ports.yml", dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "destination.port");
+      config.put("target_field", "destination.service");
+      config.put("dictionary", "ports.yml");
+      config.put("type", "number");
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      for (Object port : Arrays.asList(443, 443L, "443")) {
+        IngestDocument ingestDocument = RandomDocumentPicks.randomIngestDocument(random(),
+            Collections.singletonMap("destination", Collections.singletonMap("port", port)));
+        assertThat(processor.execute(ingestDocument).getFieldValue("destination.service", String.class), is("https"));
+      }
+
+      IngestDocument ingestDocument = RandomDocumentPicks.randomIngestDocument(random(),
+          Collections.singletonMap("destination", Collections.singletonMap("port", 64512)));
+      assertThat(processor.execute(ingestDocument).getFieldValue("destination.service.asn_type", String.class), is("private"));
+
+      IngestDocument invalidType = RandomDocumentPicks.randomIngestDocument(random(),
+          Collections.singletonMap("destination", Collections.singletonMap("port", Arrays.asList(443))));
+      Exception exception = expectThrows(IllegalArgumentException.class, () -> processor.execute(invalidType));
+      assertThat(exception.getMessage(), containsString("is neither a number nor a string"));
+    } finally {
+      factory.close();
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright [2017] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.RandomDocumentPicks;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.Charset;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.parser.CronParser;
+import static com.cronutils.model.CronType.QUARTZ;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.containsString;
+
+public class TranslateProcessorForPrefixTranslatorTests extends ESTestCase {
+
+  private static List<String> dictionary_lines = Arrays.asList(
+    "\"+39\": Italy",
+    "\"+3933\": Italy mobile",
+    "\"+39333\": Carrier A",
+    "\"+1\": NANP",
+    "/API/: api-gateway",
+    "/api/billing/: billing",
+    "\"/caf\u00e9/\": caf\u00e9",
+    "\"/\u00e9t\u00e9/\uD83D\uDE00\": summer"
+  );
+
+  private Cron cron1sec;
+
+  public TranslateProcessorForPrefixTranslatorTests() {
+    String strCron1sec = "*/1 * * * * ?";
+    CronParser unixCronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(QUARTZ));
+    cron1sec = unixCronParser.parse(strCron1sec);
+  }
+
+  private Path setupDictionary(String dictionary, List<String> lines) throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Files.createDirectories(translateConfigDirectory);
+    Path dictionaryPath = translateConfigDirectory.resolve(dictionary);
+    Files.write(dictionaryPath, lines, Charset.forName("UTF-8"));
+    return dictionaryPath;
+  }
+
+  public void testLongestPrefix() throws Exception {
+    Translator translator = Translator.Factory.create("prefix", setupDictionary("prefixes.yml", dictionary_lines), cron1sec);
+
+    assertThat(translator.lookup("+393331234567"), is("Carrier A"));
+    assertThat(translator.lookup("+393391234567"), is("Italy mobile"));
+    assertThat(translator.lookup("+390612345678"), is("Italy"));
+    assertThat(translator.lookup("+39"), is("Italy"));
+    assertThat(translator.lookup("+3"), nullValue());
+    assertThat(translator.lookup("+4420"), nullValue());
+    assertThat(translator.lookup(""), nullValue());
+    // the case is ignored
+    assertThat(translator.lookup("/api/users/1"), is("api-gateway"));
+    assertThat(translator.lookup("/API/Billing/invoices"), is("billing"));
+    assertThat(translator.lookup("/apix"), nullValue());
+    // the keys are matched on their UTF-8 bytes
+    assertThat(translator.lookup("/CAF\u00c9/menu"), is("caf\u00e9"));
+    assertThat(translator.lookup("/caf"), nullValue());
+    assertThat(translator.lookup("/\u00e9t\u00e9/\uD83D\uDE00/x"), is("summer"));
+    assertThat(translator.lookup("/\u00e9t\u00e9/\uD83D"), nullValue());
+  }
+
+  public void testMultipleMatch() throws Exception {
+    Translator translator = Translator.Factory.create("prefix", setupDictionary("prefixes.yml", dictionary_lines), cron1sec);
+
+    // from the longest to the shortest
+    assertThat(translator.lookup("+393331234567", true), is(Arrays.asList("Carrier A", "Italy mobile", "Italy")));
+    assertThat(translator.lookup("+3906", true), is(Collections.singletonList("Italy")));
+    assertThat(translator.lookup("+44", true), nullValue());
+  }
+
+  public void testEmptyKeyMatchesEverything() throws Exception {
+    Translator translator = Translator.Factory.create("prefix",
+        setupDictionary("prefixes.yml", Arrays.asList("\"\": other", "\"+1\": NANP")), cron1sec);
+
+    assertThat(translator.lookup("+12125550100"), is("NANP"));
+    assertThat(translator.lookup("+39"), is("other"));
+    assertThat(translator.lookup("+12125550100", true), is(Arrays.asList("NANP", "other")));
+  }
+
+  public void testProcessorWithPrefixType() throws Exception {
+    Path dictionaryPath = setupDictionary("prefixes.yml", dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "url.path");
+      config.put("target_field", "service.name");
+      config.put("dictionary", "prefixes.yml");
+      config.put("type", "prefix");
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      IngestDocument ingestDocument = RandomDocumentPicks.randomIngestDocument(random(),
+          Collections.singletonMap("url", Collections.singletonMap("path", "/api/billing/invoices/42")));
+      assertThat(processor.execute(ingestDocument).getFieldValue("service.name", String.class), is("billing"));
+
+      Files.createDirectories(dictionaryPath.resolveSibling("parts"));
+      config = new HashMap<>();
+      config.put("field", "url.path");
+      config.put("dictionary", "parts");
+      config.put("type", "prefix");
+      Map<String, Object> partitioned = config;
+      Exception exception = expectThrows(Exception.class,
+                                         () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), partitioned));
+      assertThat(exception.getMessage(), containsString("does not support partitioned dictionaries"));
+    } finally {
+      factory.close();
+    }
+  }
+
+}
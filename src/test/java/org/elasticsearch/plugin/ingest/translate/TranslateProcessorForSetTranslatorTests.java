@@ -0,0 +1,200 @@
+/*
+ * Copyright [2017] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.RandomDocumentPicks;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Arrays;
+import java.util.Set;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.Charset;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.parser.CronParser;
+import static com.cronutils.model.CronType.QUARTZ;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.containsString;
+
+public class TranslateProcessorForSetTranslatorTests extends ESTestCase {
+
+  private static List<String> hash_dictionary_lines = Arrays.asList(
+    "d41d8cd98f00b204e9800998ecf8427e: true",
+    "\"0CC175B9C0F1B6A831C399E269772661\": true",
+    "900150983cd24fb0d6963f7d28e17f72: true",
+    "d41d8cd98f00b204e9800998ecf8427e: true"
+  );
+  private static List<String> domain_dictionary_lines = Arrays.asList(
+    "evil.example.com: true",
+    "Phishing.Example.NET: true",
+    "\"caf\u00e9.example.org\": true",
+    "cafe: true"
+  );
+
+  private Cron cron1sec;
+
+  public TranslateProcessorForSetTranslatorTests() {
+    String strCron1sec = "*/1 * * * * ?";
+    CronParser unixCronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(QUARTZ));
+    cron1sec = unixCronParser.parse(strCron1sec);
+  }
+
+  private Path setupDictionary(String dictionary, List<String> lines) throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Files.createDirectories(translateConfigDirectory);
+    Path dictionaryPath = translateConfigDirectory.resolve(dictionary);
+    Files.write(dictionaryPath, lines, Charset.forName("UTF-8"));
+    return dictionaryPath;
+  }
+
+  private Translator setTranslator(Path dictionaryPath) throws Exception {
+    return new SetTranslator(new FileDictionarySource(dictionaryPath), new TranslatorContext(cron1sec), true);
+  }
+
+  public void testHexKeys() throws Exception {
+    Translator translator = setTranslator(setupDictionary("hashes.yml", hash_dictionary_lines));
+
+    assertThat(translator.lookup("d41d8cd98f00b204e9800998ecf8427e"), is(Boolean.TRUE));
+    assertThat(translator.lookup("0cc175b9c0f1b6a831c399e269772661"), is(Boolean.TRUE));
+    assertThat(translator.lookup("900150983CD24FB0D6963F7D28E17F72"), is(Boolean.TRUE));
+    assertThat(translator.lookup("900150983cd24fb0d6963f7d28e17f73"), nullValue());
+    // the keys of another length or with other chars never match
+    assertThat(translator.lookup("900150983cd24fb0d6963f7d28e17f7"), nullValue());
+    assertThat(translator.lookup("900150983cd24fb0d6963f7d28e17f72a"), nullValue());
+    assertThat(translator.lookup("x00150983cd24fb0d6963f7d28e17f72"), nullValue());
+    assertThat(translator.lookup(""), nullValue());
+    // the duplicates are stored once: 3 keys of 2 longs
+    assertThat(translator.getStats().estimatedBytes < 100, is(true));
+  }
+
+  public void testStringKeys() throws Exception {
+    Translator translator = setTranslator(setupDictionary("domains.yml", domain_dictionary_lines));
+
+    assertThat(translator.lookup("evil.example.com"), is(Boolean.TRUE));
+    assertThat(translator.lookup("phishing.example.net"), is(Boolean.TRUE));
+    assertThat(translator.lookup("CAF\u00c9.EXAMPLE.ORG"), is(Boolean.TRUE));
+    // the hexadecimal keys are matched as strings if they are not all hexadecimal
+    assertThat(translator.lookup("CAFE"), is(Boolean.TRUE));
+    assertThat(translator.lookup("example.com"), nullValue());
+    assertThat(translator.lookup(""), nullValue());
+  }
+
+  public void testSameLookupsAsStringTranslator() throws Exception {
+    boolean hex = randomBoolean();
+    List<String> lines = new ArrayList<>();
+    Set<String> keys = new HashSet<>();
+    for (int i = 0; i < 5000; i++) {
+      String key = hex ? randomHex(40) : randomAlphaOfLengthBetween(1, 12) + i;
+      keys.add(key);
+      lines.add("\"" + key + "\": true");
+    }
+    Path dictionaryPath = setupDictionary("random.yml", lines);
+    Translator set = setTranslator(dictionaryPath);
+    Translator hash = Translator.Factory.create("string", dictionaryPath, cron1sec);
+
+    List<String> allKeys = new ArrayList<>(keys);
+    for (int i = 0; i < 5000; i++) {
+      String key = randomBoolean() ? allKeys.get(randomIntBetween(0, allKeys.size() - 1)) : hex ? randomHex(40) : randomAlphaOfLengthBetween(0, 13);
+      if (randomBoolean())
+        key = key.toUpperCase(Locale.ROOT);
+      assertThat(key, set.lookup(key), is(hash.lookup(key) == null ? null : Boolean.TRUE));
+    }
+  }
+
+  public void testProcessorWithSetTranslator() throws Exception {
+    Path dictionaryPath = setupDictionary("hashes.yml", hash_dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "file.hash.md5");
+      config.put("target_field", "threat.matched");
+      config.put("dictionary", "hashes.yml");
+      config.put("type", "set");
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      assertThat(translate(processor, "0cc175b9c0f1b6a831c399e269772661", "threat.matched"), is(Boolean.TRUE));
+      assertThat(translate(processor, "0cc175b9c0f1b6a831c399e269772662", "threat.matched"), nullValue());
+      assertThat(factory.getTranslators().get("set:hashes.yml") instanceof SetTranslator, is(true));
+
+      config = new HashMap<>();
+      config.put("field", "file.hash.md5");
+      config.put("target_field", "threat.indicator");
+      config.put("dictionary", "hashes.yml");
+      config.put("type", "set");
+      config.put("hit_value", Collections.singletonMap("type", "file"));
+      processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      assertThat(translate(processor, "D41D8CD98F00B204E9800998ECF8427E", "threat.indicator.type"), is("file"));
+
+      config = new HashMap<>();
+      config.put("field", "file.hash.md5");
+      config.put("target_field", "threat.indicator.file.hash.md5");
+      config.put("dictionary", "hashes.yml");
+      config.put("type", "set");
+      config.put("hit_key", true);
+      processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      assertThat(translate(processor, "900150983cd24fb0d6963f7d28e17f72", "threat.indicator.file.hash.md5"),
+                 is("900150983cd24fb0d6963f7d28e17f72"));
+
+      config = new HashMap<>();
+      config.put("field", "file.hash.md5");
+      config.put("dictionary", "hashes.yml");
+      config.put("hit_value", "malware");
+      Map<String, Object> stringConfig = config;
+      Exception exception = expectThrows(Exception.class,
+                                         () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), stringConfig));
+      assertThat(exception.getMessage(), containsString("property is supported only by the set translator"));
+
+      config = new HashMap<>();
+      config.put("field", "file.hash.md5");
+      config.put("dictionary", "hashes.yml");
+      config.put("type", "set");
+      config.put("hit_value", "malware");
+      config.put("hit_key", true);
+      Map<String, Object> bothConfig = config;
+      exception = expectThrows(Exception.class,
+                               () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), bothConfig));
+      assertThat(exception.getMessage(), containsString("Cannot set both `hit_value` and `hit_key`"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  private static String randomHex(int length) {
+    StringBuilder hex = new StringBuilder(length);
+    for (int i = 0; i < length; i++)
+      hex.append(Character.forDigit(randomIntBetween(0, 15), 16));
+    return hex.toString();
+  }
+
+  private static Object translate(TranslateProcessor processor, String key, String targetField) throws Exception {
+    IngestDocument ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("file",
+        Collections.singletonMap("hash", Collections.singletonMap("md5", key))));
+    return processor.execute(ingestDocument).getFieldValue(targetField, Object.class, true);
+  }
+}
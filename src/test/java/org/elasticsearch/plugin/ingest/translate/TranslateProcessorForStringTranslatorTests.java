@@ -17,18 +17,31 @@
 
 package org.elasticsearch.plugin.ingest.translate;
 
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.ingest.IngestDocument;
 import org.elasticsearch.ingest.RandomDocumentPicks;
+import org.elasticsearch.script.TemplateScript;
 import org.elasticsearch.test.ESTestCase;
 
 import java.util.Map;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Collections;
 import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.Arrays;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.charset.Charset;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import com.cronutils.model.Cron;
 import com.cronutils.model.definition.CronDefinitionBuilder;
@@ -39,6 +52,8 @@ import static org.elasticsearch.ingest.IngestDocumentMatcher.assertIngestDocumen
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.sameInstance;
 
 public class TranslateProcessorForStringTranslatorTests extends ESTestCase {
 
@@ -90,6 +105,16 @@ public class TranslateProcessorForStringTranslatorTests extends ESTestCase {
     Files.write(dictionaryPath, lines, Charset.forName("UTF-8"), StandardOpenOption.APPEND);
   }
 
+  private Map<String, Object> processorConfig(String dictionary, String onLoading) {
+    Map<String, Object> config = new HashMap<>();
+    config.put("field", "source_field");
+    config.put("target_field", "target_field");
+    config.put("dictionary", dictionary);
+    config.put("lazy", true);
+    config.put("on_loading", onLoading);
+    return config;
+  }
+
   public void testThatProcessorWorks() throws Exception {
     IngestDocument ingestDocument =
       RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("source_field", "100.0.111.185"));
@@ -293,4 +318,834 @@ public class TranslateProcessorForStringTranslatorTests extends ESTestCase {
     Exception exception = expectThrows(Exception.class, () -> processor.execute(ingestDocument));
     assertThat(exception.getMessage(), equalTo("cannot add non-map fields to root of document"));
   }
+
+  public void testLazyDictionary() throws Exception {
+    String dictionary = "test.yml";
+    Path dictionaryPath = setupDictionary(dictionary, dictionary_lines);
+    // the loads are queued until they are explicitly run
+    List<Runnable> loads = new ArrayList<>();
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, loads::add);
+    try {
+      TranslateProcessor skipProcessor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10),
+                                                        processorConfig(dictionary, "skip"));
+      TranslateProcessor failProcessor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10),
+                                                        processorConfig(dictionary, "fail"));
+      // both the processors share the same load
+      assertThat(loads.size(), is(1));
+
+      IngestDocument originalIngestDocument =
+        RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("source_field", "100.0.111.185"));
+      IngestDocument ingestDocument = new IngestDocument(originalIngestDocument);
+      skipProcessor.execute(ingestDocument);
+      assertIngestDocument(originalIngestDocument, ingestDocument);
+
+      Exception exception = expectThrows(Exception.class, () -> failProcessor.execute(new IngestDocument(originalIngestDocument)));
+      assertThat(exception.getMessage(), equalTo("dictionary [test.yml] is not loaded yet"));
+
+      loads.get(0).run();
+      Map<String, Object> data = skipProcessor.execute(new IngestDocument(originalIngestDocument)).getSourceAndMetadata();
+      assertThat(data.get("target_field"), is("known attacker"));
+      data = failProcessor.execute(new IngestDocument(originalIngestDocument)).getSourceAndMetadata();
+      assertThat(data.get("target_field"), is("known attacker"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testEagerDictionaryNotFound() throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(translateConfigDirectory, new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("dictionary", "missing.yml");
+      Exception exception = expectThrows(Exception.class,
+                                         () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config));
+      assertThat(exception.getMessage(), equalTo("the file [" + translateConfigDirectory.resolve("missing.yml") + "] doesn't exist"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testEagerFailureKeepsSharedTranslator() throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Files.createDirectories(translateConfigDirectory);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(translateConfigDirectory, new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      TranslateProcessor lazyProcessor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10),
+                                                        processorConfig("late.yml", "skip"));
+      Translator translator = factory.getTranslators().get("string:late.yml");
+      assertThat(translator.isLoaded(), is(false));
+
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", "late.yml");
+      Map<String, Object> eagerConfig = config;
+      expectThrows(Exception.class, () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), new HashMap<>(eagerConfig)));
+      // the lazy processor keeps its translator, still monitored
+      assertThat(factory.getTranslators().get("string:late.yml"), sameInstance(translator));
+      assertThat(translator.isMonitoringStarted(), is(true));
+
+      Files.write(translateConfigDirectory.resolve("late.yml"), dictionary_lines, Charset.forName("UTF-8"));
+      factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), new HashMap<>(eagerConfig));
+      assertThat(translator.isLoaded(), is(true));
+      Map<String, Object> data = lazyProcessor.execute(RandomDocumentPicks.randomIngestDocument(random(),
+          Collections.singletonMap("source_field", "100.0.111.185"))).getSourceAndMetadata();
+      assertThat(data.get("target_field"), is("known attacker"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testParallelBuild() throws Exception {
+    // big enough to be parsed in chunks
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 50000; i++)
+      lines.add("Host-" + i + ".example.com: \"value " + i + "\"");
+    lines.add("host-7.EXAMPLE.com: \"last wins\"");
+    Path dictionaryPath = setupDictionary("big.yml", lines);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      Translator translator = new StringTranslator(new FileDictionarySource(dictionaryPath),
+                                                   new TranslatorContext(cron1sec, pool), true);
+      assertThat(translator.lookup("host-0.example.com", false), is("value 0"));
+      assertThat(translator.lookup("HOST-49999.EXAMPLE.COM", false), is("value 49999"));
+      assertThat(translator.lookup("host-7.example.com", false), is("last wins"));
+      assertThat(translator.lookup("host-50000.example.com", false), is((Object) null));
+    } finally {
+      pool.shutdownNow();
+      pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  public void testParallelParseFallback() throws Exception {
+    // the quoted value spans lines that look like top level keys: the chunks splitting it can't be parsed alone
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 20000; i++)
+      lines.add("host-" + i + ".example.com: \"value " + i + "\"");
+    lines.add("notes: \"first line");
+    for (int i = 0; i < 40000; i++)
+      lines.add("continued line " + i);
+    lines.add("last line\"");
+    Path dictionaryPath = setupDictionary("multiline.yml", lines);
+    FileDictionarySource source = new FileDictionarySource(dictionaryPath);
+
+    TranslatorContext serialContext = new TranslatorContext(cron1sec);
+    DictionaryMemory serialMemory = serialContext.newDictionaryMemory("multiline.yml");
+    Map<String, Object> serial = source.load(serialContext, serialMemory);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      TranslatorContext parallelContext = new TranslatorContext(cron1sec, pool);
+      DictionaryMemory parallelMemory = parallelContext.newDictionaryMemory("multiline.yml");
+      Map<String, Object> parallel = source.load(parallelContext, parallelMemory);
+      assertThat(parallel, equalTo(serial));
+      // the estimates of the chunks parsed before the fallback are not counted twice
+      assertThat(parallelMemory.getEstimatedBytes(), is(serialMemory.getEstimatedBytes()));
+    } finally {
+      pool.shutdownNow();
+      pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  public void testEqualValuesAreShared() throws Exception {
+    List<String> lines = new ArrayList<>(dictionary_lines);
+    lines.addAll(new_dictionary_lines);
+    lines.addAll(Arrays.asList(
+      "server1:",
+      "  groups: [group1, group2]",
+      "server2:",
+      "  groups: [group1, group2]"
+    ));
+    Path dictionaryPath = setupDictionary("test.yml", lines);
+    Translator translator = new StringTranslator(dictionaryPath, cron1sec);
+
+    assertThat(translator.lookup("1.1.1.1") == translator.lookup("100.0.111.185"), is(true));
+    assertThat(translator.lookup("server1") == translator.lookup("server2"), is(true));
+    Translator.LoadStats stats = translator.getStats();
+    assertThat(stats.entries, is(10));
+    assertThat(stats.distinctValues, is(5));
+    assertThat(stats.dedupSavedBytes > 0, is(true));
+
+    // the shared value is written as it is and can't be changed through a document
+    TranslateProcessor processor = new TranslateProcessor(randomAlphaOfLength(10), randomAlphaOfLength(10),
+                                                          "source_field", "target_field", "test.yml",
+                                                          false, false, false, translator);
+    IngestDocument ingestDocument =
+      RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("source_field", "server1"));
+    processor.execute(ingestDocument);
+    assertThat(ingestDocument.getFieldValue("target_field", Object.class), sameInstance(translator.lookup("server2")));
+    expectThrows(UnsupportedOperationException.class, () -> ingestDocument.setFieldValue("target_field.groups.0", "changed"));
+    expectThrows(UnsupportedOperationException.class, () -> ingestDocument.setFieldValue("target_field.host", "server1"));
+    assertThat(translator.lookup("server2"),
+               equalTo(Collections.singletonMap("groups", Arrays.asList("group1", "group2"))));
+  }
+
+  public void testDictionaryChain() throws Exception {
+    Path overridesPath = setupDictionary("overrides.yml", Arrays.asList(
+      "\"100.0.111.185\": \"false positive\"",
+      "server1:",
+      "  owner: team1"
+    ));
+    Path translateConfigDirectory = overridesPath.getParent();
+    Files.write(translateConfigDirectory.resolve("global.yml"), dictionary_lines, Charset.forName("UTF-8"));
+    Files.write(translateConfigDirectory.resolve("servers.yml"), Arrays.asList(
+      "server1:",
+      "  owner: team2",
+      "  host: server1.example.com"
+    ), Charset.forName("UTF-8"));
+
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(translateConfigDirectory, new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", Arrays.asList("overrides.yml", "global.yml"));
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      IngestDocument ingestDocument =
+        RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("source_field", "100.0.111.185"));
+      assertThat(processor.execute(ingestDocument).getFieldValue("target_field", String.class), is("false positive"));
+      ingestDocument =
+        RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("source_field", "100.11.12.193"));
+      assertThat(processor.execute(ingestDocument).getFieldValue("target_field", String.class), is("tor exit node"));
+
+      config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", Arrays.asList("overrides.yml", "servers.yml"));
+      config.put("multiple_match", true);
+      processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("source_field", "server1"));
+      Map<String, Object> merged = processor.execute(ingestDocument).getFieldValue("target_field", Map.class);
+      assertThat(merged.get("owner"), is("team1"));
+      assertThat(merged.get("host"), is("server1.example.com"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testCompositeKey() throws Exception {
+    Path dictionaryPath = setupDictionary("services.yml", Arrays.asList(
+      "\"10.0.0.1|443\": web",
+      "\"10.0.0.1|22\": ssh",
+      "\"Server1|-1\": negative",
+      "\"10.0.0.2|443\":",
+      "  service: api",
+      "  owner: team1"
+    ));
+
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("fields", Arrays.asList("destination.ip", "destination.port"));
+      config.put("target_field", "service");
+      config.put("dictionary", "services.yml");
+      config.put("ignore_missing", true);
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      Map<String, Object> destination = new HashMap<>();
+      destination.put("ip", "10.0.0.1");
+      destination.put("port", 443);
+      IngestDocument ingestDocument =
+        RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("destination", destination));
+      assertThat(processor.execute(ingestDocument).getFieldValue("service", String.class), is("web"));
+
+      destination.put("port", "22");
+      ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("destination", destination));
+      assertThat(processor.execute(ingestDocument).getFieldValue("service", String.class), is("ssh"));
+
+      destination.put("ip", "SERVER1");
+      destination.put("port", -1L);
+      ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("destination", destination));
+      assertThat(processor.execute(ingestDocument).getFieldValue("service", String.class), is("negative"));
+
+      destination.put("ip", "10.0.0.2");
+      destination.put("port", 443);
+      ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("destination", destination));
+      assertThat(processor.execute(ingestDocument).getFieldValue("service.owner", String.class), is("team1"));
+
+      destination.put("port", 4430);
+      ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("destination", destination));
+      assertThat(processor.execute(ingestDocument).hasField("service"), is(false));
+
+      destination.remove("port");
+      ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("destination", destination));
+      assertThat(processor.execute(ingestDocument).hasField("service"), is(false));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testDictionaryOverBudget() throws Exception {
+    String dictionary = "test.yml";
+    Path dictionaryPath = setupDictionary(dictionary, dictionary_lines);
+    TranslatorContext context = new TranslatorContext(cron1sec, null, () -> null, 64 * 1024);
+    Translator translator = new StringTranslator(new FileDictionarySource(dictionaryPath), context, true);
+    translator.startMonitoring();
+    try {
+      assertThat(translator.lookup("100.0.111.185"), is("known attacker"));
+      assertThat(translator.getStats().estimatedBytes > 0, is(true));
+
+      // a reload over the budget is rejected and the current dictionary keeps serving
+      List<String> lines = new ArrayList<>();
+      for (int i = 0; i < 5000; i++)
+        lines.add("host-" + i + ".example.com: \"value " + i + "\"");
+      appendLinesToDictionary(dictionaryPath, lines);
+      Thread.sleep(2000L);
+      assertThat(translator.lookup("100.0.111.185"), is("known attacker"));
+      assertThat(translator.lookup("host-0.example.com"), is((Object) null));
+    } finally {
+      translator.stopMonitoring();
+    }
+
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), context, null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("dictionary", dictionary);
+      List<Map<String, Object>> results = factory.validate(config).get();
+      assertThat(results.size(), is(1));
+      assertThat(results.get(0).get("valid"), is(false));
+      assertThat((Long) results.get(0).get("estimated_size_in_bytes") > 64 * 1024, is(true));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testPartitionedDictionary() throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Path feed = translateConfigDirectory.resolve("feed");
+    Files.createDirectories(feed);
+    // the keys are partitioned as the documents routed by key
+    List<List<String>> partitions = Arrays.asList(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    for (int i = 0; i < 100; i++) {
+      String key = "host-" + i;
+      partitions.get(Math.floorMod(PartitionedTranslator.murmur3(key), 4)).add(key + ": value " + i);
+    }
+    for (int i = 0; i < 4; i++)
+      Files.write(feed.resolve("part-" + i + ".yml"), partitions.get(i), Charset.forName("UTF-8"));
+
+    TranslatorContext context = new TranslatorContext(cron1sec);
+    PartitionedTranslator translator = (PartitionedTranslator) Translator.Factory.create(
+        "string", DirectoryDictionarySource.of(translateConfigDirectory, "feed"), context, true);
+    assertThat(translator.isRouted(), is(true));
+    assertThat(translator.getStats().entries, is(100));
+    for (int i = 0; i < 100; i++)
+      assertThat(translator.lookup("HOST-" + i), is("value " + i));
+
+    // only the changed partition is reloaded
+    String checksum = translator.getChecksum();
+    Files.write(feed.resolve("part-0.yml"), Collections.singletonList("other: moved"), Charset.forName("UTF-8"),
+                StandardOpenOption.APPEND);
+    translator.loadIfChanged();
+    assertThat(translator.getChecksum().equals(checksum), is(false));
+    assertThat(translator.lookup("other"), is("moved"));
+    assertThat(translator.lookup("host-1"), is("value 1"));
+    assertThat(translator.getStats().entries, is(101));
+
+    // a glob selects some of the partitions
+    translator = (PartitionedTranslator) Translator.Factory.create(
+        "string", DirectoryDictionarySource.of(translateConfigDirectory, "feed/part-[12].yml"), context, true);
+    assertThat(translator.getStats().entries, is(partitions.get(1).size() + partitions.get(2).size()));
+    assertThat(translator.isRouted(), is(false));
+
+    // an existing file is read as it is, also if its name looks like a glob
+    Files.write(translateConfigDirectory.resolve("hosts[eu].yml"), Collections.singletonList("host-1: eu"),
+                Charset.forName("UTF-8"));
+    assertThat(DirectoryDictionarySource.of(translateConfigDirectory, "hosts[eu].yml") instanceof FileDictionarySource,
+               is(true));
+    assertThat(DirectoryDictionarySource.of(translateConfigDirectory, "hosts[ab].yml") instanceof DirectoryDictionarySource,
+               is(true));
+
+    // the partitions don't support live changes
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(translateConfigDirectory, context, null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("dictionary", "feed");
+      factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      ExecutionException exception = expectThrows(ExecutionException.class,
+          () -> factory.changeEntries("feed/part-1.yml", Collections.singletonMap("host-1", "changed"), Collections.emptyList()).get());
+      assertThat(exception.getCause() instanceof IllegalArgumentException, is(true));
+      assertThat(exception.getCause().getMessage(), containsString("is a partition of the partitioned dictionary [feed]"));
+      assertThat(Files.exists(new DictionaryJournal(feed.resolve("part-1.yml")).getPath()), is(false));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testSharedMonitoring() throws Exception {
+    Path firstPath = setupDictionary("first.yml", Collections.singletonList("server1: first"));
+    Path secondPath = firstPath.resolveSibling("second.yml");
+    Files.write(secondPath, Collections.singletonList("server1: second"), Charset.forName("UTF-8"));
+    // the translators of a context, also the projecting ones, are checked by the same schedule
+    TranslatorContext context = new TranslatorContext(cron1sec);
+    Translator first = new StringTranslator(new FileDictionarySource(firstPath), context, true);
+    Translator second = new StringTranslator(new FileDictionarySource(secondPath),
+                                             context.withProjection(ValueProjection.ofPath("owner")), true);
+    first.startMonitoring();
+    second.startMonitoring();
+    try {
+      assertThat(context.getMonitor().isMonitored(first), is(true));
+      assertThat(context.getMonitor().isMonitored(second), is(true));
+      appendLinesToDictionary(firstPath, Collections.singletonList("server2: first"));
+      appendLinesToDictionary(secondPath, Collections.singletonList("server2: { owner: second }"));
+      Thread.sleep(2000L);
+      assertThat(first.lookup("server2"), is("first"));
+      assertThat(second.lookup("server2"), is("second"));
+    } finally {
+      first.close();
+      second.stopMonitoring();
+    }
+    assertThat(context.getMonitor().isMonitored(first), is(false));
+    assertThat(context.getMonitor().isMonitored(second), is(false));
+  }
+
+  public void testDynamicTranslatorsCreatedConcurrently() throws Exception {
+    Path dictionaryPath = setupDictionary("tenant1-assets.yml", Collections.singletonList("server1: tenant1 server"));
+    TranslatorCache cache = new TranslatorCache(10, -1, TimeValue.timeValueMinutes(30).millis(), Runnable::run);
+    CountDownLatch creating = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger creations = new AtomicInteger();
+    ForkJoinPool executor = new ForkJoinPool(2);
+    try {
+      Future<Translator> slow = executor.submit(() -> cache.get("slow", () -> {
+        creations.incrementAndGet();
+        creating.countDown();
+        release.await();
+        return Translator.Factory.create("string", dictionaryPath, cron1sec);
+      }));
+      creating.await();
+      // the creation of another key doesn't wait for the slow one
+      Translator other = cache.get("other", () -> Translator.Factory.create("string", dictionaryPath, cron1sec));
+      assertThat(other.lookup("server1"), is("tenant1 server"));
+      // the same key waits for the creation in progress instead of creating another translator
+      Future<Translator> same = executor.submit(() -> cache.get("slow", () -> {
+        creations.incrementAndGet();
+        return Translator.Factory.create("string", dictionaryPath, cron1sec);
+      }));
+      release.countDown();
+      assertThat(same.get(), sameInstance(slow.get()));
+      assertThat(creations.get(), is(1));
+
+      // a failed creation is not cached
+      ExecutionException exception = expectThrows(ExecutionException.class, () -> executor.submit(() -> cache.get("broken", () -> {
+        throw new IllegalStateException("broken dictionary");
+      })).get());
+      assertThat(exception.getCause().getMessage(), is("broken dictionary"));
+      assertThat(cache.getTranslators().containsKey("broken"), is(false));
+    } finally {
+      executor.shutdown();
+      cache.clear();
+    }
+  }
+
+  public void testDynamicDictionary() throws Exception {
+    Path dictionaryPath = setupDictionary("tenant1-assets.yml", Collections.singletonList("server1: tenant1 server"));
+    Files.write(dictionaryPath.resolveSibling("tenant2-assets.yml"), Collections.singletonList("server1: tenant2 server"),
+                Charset.forName("UTF-8"));
+
+    // at most one dictionary in the cache
+    TranslateProcessor.Factory factory =
+        new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run, null,
+                                       new TranslatorCache(1, -1, TimeValue.timeValueMinutes(30).millis(), Runnable::run));
+    try {
+      // renders "{{tenant}}-assets.yml"
+      TemplateScript.Factory template = params -> new TemplateScript(params) {
+        @Override
+        public String execute() {
+          return getParams().get("tenant") + "-assets.yml";
+        }
+      };
+      TranslateProcessor processor =
+          new TranslateProcessor(randomAlphaOfLength(10), randomAlphaOfLength(10), "source_field", null, "target_field",
+                                 Collections.singletonList("{{tenant}}-assets.yml"), Collections.singletonList(null),
+                                 new TranslateProcessor.Options().dynamicDictionaries(Collections.singletonList(template),
+                                     dictionary -> factory.getDynamicTranslator("string", null, 1, "hash", null, dictionary)));
+      assertThat(factory.getTranslators().isEmpty(), is(true));
+
+      Map<String, Object> source = new HashMap<>();
+      source.put("source_field", "server1");
+      source.put("tenant", "tenant1");
+      IngestDocument ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), source);
+      assertThat(processor.execute(ingestDocument).getFieldValue("target_field", String.class), is("tenant1 server"));
+
+      source.put("tenant", "tenant2");
+      ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), source);
+      assertThat(processor.execute(ingestDocument).getFieldValue("target_field", String.class), is("tenant2 server"));
+      assertThat(factory.getTranslators().keySet(), equalTo(Collections.singleton("string:tenant2-assets.yml")));
+      assertThat(factory.getDynamicTranslators().getEvictions(), is(1L));
+
+      // a missing dictionary fails without waiting for the loading timeout
+      source.put("tenant", "tenant3");
+      IngestDocument missingDictionary = RandomDocumentPicks.randomIngestDocument(random(), source);
+      long start = System.nanoTime();
+      Exception exception = expectThrows(Exception.class, () -> processor.execute(missingDictionary));
+      assertThat(exception.getMessage(), containsString("is not loaded yet"));
+      assertThat(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10), is(true));
+
+      // the dictionaries must be in the translate configuration directory
+      source.put("tenant", "../../etc/passwd");
+      IngestDocument outside = RandomDocumentPicks.randomIngestDocument(random(), source);
+      exception = expectThrows(IllegalArgumentException.class, () -> processor.execute(outside));
+      assertThat(exception.getMessage(), containsString("is not a file of"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testClosedDuringFirstLoad() throws Exception {
+    Path dictionaryPath = setupDictionary("test.yml", dictionary_lines);
+    List<Runnable> loads = new ArrayList<>();
+    Translator translator = Translator.Factory.create("string", new FileDictionarySource(dictionaryPath),
+                                                      new TranslatorContext(cron1sec), false);
+    translator.loadInBackground(loads::add);
+    // evicted before its first load runs: the load neither keeps a dictionary nor starts monitoring
+    translator.close();
+    loads.get(0).run();
+    assertThat(translator.isLoaded(), is(false));
+    assertThat(translator.isMonitoringStarted(), is(false));
+  }
+
+  public void testLiveChanges() throws Exception {
+    Path dictionaryPath = setupDictionary("live.yml", dictionary_lines);
+    TranslatorContext context = new TranslatorContext(cron1sec);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), context, null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", "live.yml");
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      Map<String, Object> upserts = new HashMap<>();
+      upserts.put("1.2.3.4", "scanner");
+      upserts.put("100.0.111.185", "reformed attacker");
+      Map<String, Object> result =
+          factory.changeEntries("live.yml", upserts, Collections.singletonList("100.11.12.193")).get();
+      assertThat(result.get("translators"), equalTo(Collections.singletonList("string:live.yml")));
+      assertThat(result.get("journal_size"), is(3));
+
+      // applied without reloading the dictionary
+      String checksum = factory.getTranslators().get("string:live.yml").getChecksum();
+      assertThat(translate(processor, "1.2.3.4"), is("scanner"));
+      assertThat(translate(processor, "100.0.111.185"), is("reformed attacker"));
+      assertThat(translate(processor, "100.11.12.193"), is((Object) null));
+      assertThat(translate(processor, "100.0.111.199"), is("bad reputation"));
+      assertThat(factory.getTranslators().get("string:live.yml").getChecksum(), is(checksum));
+
+      // a changed value is as immutable as the loaded ones
+      factory.changeEntries("live.yml", Collections.singletonMap("5.6.7.8", Collections.singletonMap("role", "proxy")),
+                            Collections.emptyList()).get();
+      Object changed = translate(processor, "5.6.7.8");
+      assertThat(changed, equalTo(Collections.singletonMap("role", "proxy")));
+      assertThat(translate(processor, "5.6.7.8"), sameInstance(changed));
+      expectThrows(UnsupportedOperationException.class, () -> ((Map<?, ?>) changed).clear());
+
+      // a new load replays the journal over the file
+      Translator reloaded = Translator.Factory.create("string", dictionaryPath, cron1sec);
+      assertThat(reloaded.lookup("1.2.3.4"), is("scanner"));
+      assertThat(reloaded.lookup("100.11.12.193"), is((Object) null));
+
+      // the compaction writes the changes to the file and deletes the journal
+      DictionaryJournal journal = context.getJournal(dictionaryPath);
+      journal.compact(context, StringTranslator::fold);
+      assertThat(Files.exists(journal.getPath()), is(false));
+      assertThat(journal.size(), is(0));
+      Translator compacted = Translator.Factory.create("string", dictionaryPath, cron1sec);
+      assertThat(compacted.lookup("1.2.3.4"), is("scanner"));
+      assertThat(compacted.lookup("100.0.111.185"), is("reformed attacker"));
+      assertThat(compacted.lookup("100.11.12.193"), is((Object) null));
+      assertThat(compacted.lookup("100.0.111.126"), is("bot, crawler"));
+
+      // a change interrupted by a crash is ignored and overwritten by the next one
+      Files.write(journal.getPath(), "{\"upsert\":\"5.5.5.5\",\"val".getBytes("UTF-8"));
+      DictionaryJournal recovered = new DictionaryJournal(dictionaryPath);
+      recovered.append(Collections.singletonMap("6.6.6.6", "new"), Collections.emptyList());
+      assertThat(recovered.size(), is(1));
+      Translator replayed = Translator.Factory.create("string", dictionaryPath, cron1sec);
+      assertThat(replayed.lookup("6.6.6.6"), is("new"));
+      assertThat(replayed.lookup("5.5.5.5"), is((Object) null));
+
+      Exception exception = expectThrows(IllegalArgumentException.class,
+          () -> factory.changeEntries("../live.yml", upserts, Collections.emptyList()));
+      assertThat(exception.getMessage(), containsString("is not a file of"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testCompressedDictionary() throws Exception {
+    Path dictionaryPath = setupDictionary("feed.yml.gz", Collections.emptyList());
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dictionaryPath))) {
+      out.write(String.join("\n", dictionary_lines).getBytes("UTF-8"));
+    }
+
+    Translator translator = Translator.Factory.create("string", dictionaryPath, cron1sec);
+    assertThat(translator.lookup("100.0.111.185"), is("known attacker"));
+    assertThat(translator.lookup("100.0.111.126"), is("bot, crawler"));
+    // the checksum is computed on the compressed bytes
+    assertThat(translator.getChecksum(), equalTo(new FileDictionarySource(dictionaryPath).checksum()));
+
+    // the compaction of the live changes keeps the file compressed
+    TranslatorContext context = new TranslatorContext(cron1sec);
+    DictionaryJournal journal = context.getJournal(dictionaryPath);
+    journal.append(Collections.singletonMap("1.2.3.4", "scanner"), Collections.emptyList());
+    journal.compact(context, StringTranslator::fold);
+    Translator compacted = Translator.Factory.create("string", dictionaryPath, cron1sec);
+    assertThat(compacted.lookup("1.2.3.4"), is("scanner"));
+    assertThat(compacted.lookup("100.0.111.185"), is("known attacker"));
+
+    Path zstd = setupDictionary("feed.yml.zst", dictionary_lines);
+    Exception exception = expectThrows(Exception.class, () -> Translator.Factory.create("string", zstd, cron1sec));
+    assertThat(exception.getMessage(), containsString("compress it with gzip"));
+  }
+
+  public void testValueProjection() throws Exception {
+    Path dictionaryPath = setupDictionary("dictionary.yml", complex_dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", "dictionary.yml");
+      config.put("value_fields", Arrays.asList("host", "port", "missing"));
+      TranslateProcessor fieldsProcessor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      Map<String, Object> expected = new HashMap<>();
+      expected.put("host", "server1");
+      expected.put("port", 636);
+      assertThat(translate(fieldsProcessor, "ldap"), equalTo(expected));
+      // the values that are not objects are dropped
+      assertThat(translate(fieldsProcessor, "test1"), is((Object) null));
+      // the projected value is computed once and written as it is
+      Object projected = translate(fieldsProcessor, "ldap");
+      assertThat(translate(fieldsProcessor, "ldap"), sameInstance(projected));
+      expectThrows(UnsupportedOperationException.class, () -> ((Map<?, ?>) projected).clear());
+
+      config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", "dictionary.yml");
+      config.put("value_path", "allowed_groups");
+      TranslateProcessor pathProcessor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      assertThat(translate(pathProcessor, "ldap"), equalTo(Arrays.asList("group1", "group2", "group3")));
+
+      // each projection has its own translator, the dictionary is loaded whole only if a processor needs it
+      assertThat(factory.getTranslators().keySet(), equalTo(new HashSet<>(Arrays.asList(
+          "string[value_fields=[host, port, missing]]:dictionary.yml", "string[value_path=allowed_groups]:dictionary.yml"))));
+
+      config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("dictionary", "dictionary.yml");
+      config.put("value_fields", Collections.singletonList("host"));
+      config.put("value_path", "host");
+      Map<String, Object> bothConfig = config;
+      Exception exception = expectThrows(Exception.class,
+                                         () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), bothConfig));
+      assertThat(exception.getMessage(), containsString("Cannot set both `value_fields` and `value_path`"));
+
+      config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("dictionary", "dictionary.yml");
+      config.put("value_path", "ldap..host");
+      Map<String, Object> invalidConfig = config;
+      exception = expectThrows(Exception.class,
+                               () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), invalidConfig));
+      assertThat(exception.getMessage(), containsString("is not a valid path"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testKeySketches() throws Exception {
+    Path dictionaryPath = setupDictionary("dictionary.yml", dictionary_lines);
+    // every lookup is counted
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(),
+        new TranslatorContext(cron1sec, null, () -> null, -1L, 10000, 1, 2), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", "dictionary.yml");
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      Translator translator = factory.getTranslators().get("string:dictionary.yml");
+      assertThat(translator.getSketch(), is((KeySketch) null));
+
+      for (int i = 0; i < 10; i++)
+        translate(processor, "100.0.111.185");
+      for (int i = 0; i < 5; i++)
+        translate(processor, "100.11.12.193");
+      translate(processor, "100.0.111.199");
+      for (int i = 0; i < 1000; i++)
+        translate(processor, "10.0." + (i / 250) + "." + (i % 250));
+
+      KeySketch sketch = translator.getSketch();
+      assertThat(sketch.hits(), is(16L));
+      assertThat(sketch.misses(), is(1000L));
+      assertThat(sketch.topHits().size(), is(2));
+      assertThat(sketch.topHits().get(0).get("key"), is("100.0.111.185"));
+      assertThat(sketch.topHits().get(0).get("count"), is(10L));
+      assertThat(sketch.topHits().get(1).get("key"), is("100.11.12.193"));
+      // the standard error of the distinct count is about 1.6%
+      assertThat(Math.abs(sketch.distinctMisses() - 1000) < 50, is(true));
+
+      // an extracted key is counted as the same key
+      sketch.record(new KeyExtractor.Span("ip=100.11.12.193", 3, 16), true, true);
+      assertThat(sketch.topHits().get(1).get("key"), is("100.11.12.193"));
+      assertThat(sketch.topHits().get(1).get("count"), is(6L));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testKeySketchesFoldKeys() throws Exception {
+    Path dictionaryPath = setupDictionary("dictionary.yml", complex_dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(),
+        new TranslatorContext(cron1sec, null, () -> null, -1L, 10000, 1, 2), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", "dictionary.yml");
+      TranslateProcessor processor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      Translator translator = factory.getTranslators().get("string:dictionary.yml");
+
+      // the keys equal for the dictionary are counted as one
+      translate(processor, "test2");
+      translate(processor, "TEST2");
+      translate(processor, "Test2");
+      translate(processor, "Missing");
+      translate(processor, "MISSING");
+
+      KeySketch sketch = translator.getSketch();
+      assertThat(sketch.topHits().size(), is(1));
+      assertThat(sketch.topHits().get(0).get("key"), is("test2"));
+      assertThat(sketch.topHits().get(0).get("count"), is(3L));
+      assertThat(sketch.topMisses().size(), is(1));
+      assertThat(sketch.topMisses().get(0).get("key"), is("missing"));
+      assertThat(sketch.topMisses().get(0).get("count"), is(2L));
+      assertThat(sketch.distinctMisses(), is(1L));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testScriptFunctions() throws Exception {
+    Path dictionaryPath = setupDictionary("dictionary.yml", dictionary_lines);
+    Files.write(dictionaryPath.resolveSibling("other.yml"), complex_dictionary_lines, Charset.forName("UTF-8"));
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      TranslateScriptFunctions functions = new TranslateScriptFunctions(() -> factory);
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("dictionary", "dictionary.yml");
+      factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+
+      // the scripts use the translator of the processor
+      assertThat(functions.translate("dictionary.yml", "100.0.111.185"), is("known attacker"));
+      assertThat(functions.translate("dictionary.yml", "1.1.1.1"), is((Object) null));
+      assertThat(functions.translate("dictionary.yml", null), is((Object) null));
+      assertThat(factory.getTranslators().keySet(), equalTo(Collections.singleton("string:dictionary.yml")));
+
+      // a dictionary used by no processor is loaded on first use
+      functions.translate("other.yml", "test1");
+      assertThat(factory.getTranslators(), hasKey("string:other.yml"));
+      factory.getTranslators().get("string:other.yml").awaitLoaded(30, TimeUnit.SECONDS);
+      assertThat(functions.translate("other.yml", "TEST2"), is("Test2"));
+      // the scripts get their own copy of the values
+      Map<String, Object> ldap = (Map<String, Object>) functions.translate("other.yml", "ldap");
+      ldap.put("host", "server2");
+      assertThat(((Map<String, Object>) functions.translate("other.yml", "ldap")).get("host"), is("server1"));
+
+      Exception exception = expectThrows(IllegalArgumentException.class,
+                                         () -> functions.translate("../outside.yml", "test1"));
+      assertThat(exception.getMessage(), containsString("is not a file of"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  public void testScriptFunctionsOfThePlugin() throws Exception {
+    // the extension binds the functions of the plugin, they fail until its processors are created
+    IngestTranslatePlugin plugin = new IngestTranslatePlugin();
+    TranslatePainlessExtension extension = new TranslatePainlessExtension(plugin);
+    assertThat(extension.getContextWhitelists().size(), is(1));
+    Exception exception = expectThrows(IllegalStateException.class,
+                                       () -> plugin.getScriptFunctions().translate("dictionary.yml", "test1"));
+    assertThat(exception.getMessage(), containsString("is not available"));
+    plugin.close();
+  }
+
+  public void testKeyPattern() throws Exception {
+    Path dictionaryPath = setupDictionary("dictionary.yml", complex_dictionary_lines);
+    TranslateProcessor.Factory factory = new TranslateProcessor.Factory(dictionaryPath.getParent(), new TranslatorContext(cron1sec), null, Runnable::run);
+    try {
+      Map<String, Object> config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", "dictionary.yml");
+      config.put("key_pattern", "user=(\\w+)");
+      TranslateProcessor regexProcessor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      assertThat(translate(regexProcessor, "action=login user=TEST2 result=ok"), is("Test2"));
+      assertThat(translate(regexProcessor, "user=test1"), is("test1"));
+      // a value without the key is left as it is
+      assertThat(translate(regexProcessor, "action=logout"), is((Object) null));
+      // an extracted key already folded is not copied to be folded
+      CharSequence folded = new KeyExtractor.Span("user=test1", 5, 10);
+      assertThat(StringTranslator.fold(folded), sameInstance(folded));
+      assertThat(StringTranslator.fold(new KeyExtractor.Span("user=tEST1", 5, 10)), is("test1"));
+
+      Map<String, Object> delimiters = new HashMap<>();
+      delimiters.put("after", "cn=");
+      delimiters.put("before", ",");
+      config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("target_field", "target_field");
+      config.put("dictionary", "dictionary.yml");
+      config.put("storage", "compact");
+      config.put("key_pattern", delimiters);
+      TranslateProcessor delimitersProcessor = factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), config);
+      assertThat(translate(delimitersProcessor, "cn=TeSt3,ou=users,dc=example"), is("TeSt3"));
+      // without the closing delimiter the key runs to the end of the value
+      assertThat(translate(delimitersProcessor, "uid=1,cn=test1"), is("test1"));
+      assertThat(translate(delimitersProcessor, "uid=1,ou=users"), is((Object) null));
+
+      config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("dictionary", "dictionary.yml");
+      config.put("key_pattern", "user=\\w+");
+      Map<String, Object> noGroupConfig = config;
+      Exception exception = expectThrows(Exception.class,
+                                         () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), noGroupConfig));
+      assertThat(exception.getMessage(), containsString("has no group capturing the key"));
+
+      config = new HashMap<>();
+      config.put("field", "source_field");
+      config.put("dictionary", "dictionary.yml");
+      config.put("key_pattern", Collections.singletonMap("from", "cn="));
+      Map<String, Object> unknownConfig = config;
+      exception = expectThrows(Exception.class,
+                               () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), unknownConfig));
+      assertThat(exception.getMessage(), containsString("unknown delimiters [from]"));
+
+      config = new HashMap<>();
+      config.put("fields", Arrays.asList("user", "action"));
+      config.put("target_field", "target_field");
+      config.put("dictionary", "dictionary.yml");
+      config.put("key_pattern", "user=(\\w+)");
+      Map<String, Object> fieldsConfig = config;
+      exception = expectThrows(Exception.class,
+                               () -> factory.create(null, randomAlphaOfLength(10), randomAlphaOfLength(10), fieldsConfig));
+      assertThat(exception.getMessage(), containsString("not supported with `fields`"));
+    } finally {
+      factory.close();
+    }
+  }
+
+  private static Object translate(TranslateProcessor processor, String key) throws Exception {
+    IngestDocument ingestDocument = RandomDocumentPicks.randomIngestDocument(random(), Collections.singletonMap("source_field", key));
+    return processor.execute(ingestDocument).getFieldValue("target_field", Object.class, true);
+  }
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright [2017] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.HdrHistogram.Histogram;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.test.ESTestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.Charset;
+import javax.management.ObjectName;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.parser.CronParser;
+import static com.cronutils.model.CronType.QUARTZ;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Runs the processor on several threads while the dictionary is rewritten and reloaded, recording the latency
+ * of the lookups, the throughput and the allocation rate.
+ *
+ * A run fails if a lookup sees a torn dictionary: a missing key, a value of another key or a generation older than
+ * one already seen by the thread, or if a lookup stalls longer than 500ms. The run is short by default, the knobs are
+ * system properties, e.g. {@code -Dtests.translate.stress.duration=60s -Dtests.translate.stress.max_stall=200ms}.
+ */
+public class TranslateProcessorStressTests extends ESTestCase {
+  private static final int THREADS = Integer.getInteger("tests.translate.stress.threads", 4);
+  private static final TimeValue DURATION = timeProperty("tests.translate.stress.duration", "3s");
+  private static final TimeValue RELOAD_INTERVAL = timeProperty("tests.translate.stress.reload_interval", "50ms");
+  // No lookup may take longer: far above a lookup, below a reload blocking the readers
+  private static final TimeValue MAX_STALL = timeProperty("tests.translate.stress.max_stall", "500ms");
+  private static final int STRING_KEYS = Integer.getInteger("tests.translate.stress.string_keys", 10000);
+  private static final int IP_KEYS = Integer.getInteger("tests.translate.stress.ip_keys", 500);
+  // The latencies above are recorded as this value
+  private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+  private Cron cron1sec;
+
+  public TranslateProcessorStressTests() {
+    String strCron1sec = "*/1 * * * * ?";
+    CronParser unixCronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(QUARTZ));
+    cron1sec = unixCronParser.parse(strCron1sec);
+  }
+
+  private static TimeValue timeProperty(String name, String defaultValue) {
+    return TimeValue.parseTimeValue(System.getProperty(name, defaultValue), name);
+  }
+
+  public void testStringTranslatorUnderReload() throws Exception {
+    stress("string", STRING_KEYS, i -> "host-" + i + ".example.org", i -> "HOST-" + i + ".example.org");
+  }
+
+  public void testIpTranslatorUnderReload() throws Exception {
+    stress("ip", IP_KEYS, i -> "10." + (i / 256) + "." + (i % 256) + ".0/24", i -> "10." + (i / 256) + "." + (i % 256) + ".7");
+  }
+
+  // Every generation of the dictionary has the same keys, the value of the key i is "<generation>:<i>"
+  private void stress(String type, int keys, IntFunction<String> dictionaryKey, IntFunction<String> item) throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Files.createDirectories(translateConfigDirectory);
+    Path dictionaryPath = translateConfigDirectory.resolve("stress.yml");
+    writeGeneration(dictionaryPath, 0, keys, dictionaryKey);
+
+    Translator translator = Translator.Factory.create(type, dictionaryPath, cron1sec);
+    TranslateProcessor processor = new TranslateProcessor(randomAlphaOfLength(10), randomAlphaOfLength(10), "source_field",
+                                                          "target_field", "stress.yml", false, false, false, translator);
+
+    Histogram[] latencies = new Histogram[THREADS];
+    long[] operations = new long[THREADS];
+    long[] allocatedBytes = new long[THREADS];
+    AtomicReference<String> tornRead = new AtomicReference<>();
+    AtomicLong reloads = new AtomicLong();
+    Histogram reloadTimes = new Histogram(HIGHEST_LATENCY, 3);
+    CyclicBarrier start = new CyclicBarrier(THREADS + 1);
+    long seed = random().nextLong();
+
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      int thread = t;
+      latencies[t] = new Histogram(HIGHEST_LATENCY, 3);
+      threads.add(new Thread(() -> {
+        Random random = new Random(seed + thread);
+        long lastGeneration = 0;
+        try {
+          start.await();
+          long allocatedBefore = allocatedBytes();
+          long deadline = System.nanoTime() + DURATION.nanos();
+          while (System.nanoTime() < deadline) {
+            int key = random.nextInt(keys);
+            Map<String, Object> source = new HashMap<>();
+            source.put("source_field", item.apply(key));
+            IngestDocument ingestDocument = new IngestDocument(source, new HashMap<>());
+
+            long begin = System.nanoTime();
+            processor.execute(ingestDocument);
+            latencies[thread].recordValue(Math.min(System.nanoTime() - begin, HIGHEST_LATENCY));
+            operations[thread]++;
+
+            String value = ingestDocument.getFieldValue("target_field", String.class, true);
+            String torn = checkValue(value, key, lastGeneration);
+            if (torn != null) {
+              tornRead.compareAndSet(null, "[" + item.apply(key) + "] " + torn);
+              break;
+            }
+            lastGeneration = Long.parseLong(value.substring(0, value.indexOf(':')));
+          }
+          long allocatedAfter = allocatedBytes();
+          allocatedBytes[thread] = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+        } catch (Exception e) {
+          tornRead.compareAndSet(null, e.toString());
+        }
+      }, "translate-stress-" + t));
+    }
+    for (Thread thread : threads)
+      thread.start();
+
+    // the dictionary is replaced atomically and reloaded until the readers stop
+    start.await();
+    long deadline = System.nanoTime() + DURATION.nanos();
+    for (long generation = 1; System.nanoTime() < deadline; generation++) {
+      writeGeneration(dictionaryPath, generation, keys, dictionaryKey);
+      long begin = System.nanoTime();
+      translator.loadIfChanged();
+      reloadTimes.recordValue(Math.min(System.nanoTime() - begin, HIGHEST_LATENCY));
+      reloads.incrementAndGet();
+      Thread.sleep(RELOAD_INTERVAL.millis());
+    }
+    for (Thread thread : threads)
+      thread.join();
+
+    Histogram latency = new Histogram(HIGHEST_LATENCY, 3);
+    long totalOperations = 0;
+    long totalAllocatedBytes = 0;
+    for (int t = 0; t < THREADS; t++) {
+      latency.add(latencies[t]);
+      totalOperations += operations[t];
+      totalAllocatedBytes = totalAllocatedBytes < 0 || allocatedBytes[t] < 0 ? -1 : totalAllocatedBytes + allocatedBytes[t];
+    }
+    double seconds = DURATION.nanos() / 1e9;
+    logger.info("[{}] {} threads, {} keys, {} reloads (p50 {}ms, max {}ms): {} ops/s, latency p50 {}us p99 {}us " +
+                "p999 {}us max {}us, allocation {}",
+                type, THREADS, keys, reloads.get(),
+                TimeUnit.NANOSECONDS.toMillis(reloadTimes.getValueAtPercentile(50)),
+                TimeUnit.NANOSECONDS.toMillis(reloadTimes.getMaxValue()),
+                (long) (totalOperations / seconds),
+                TimeUnit.NANOSECONDS.toMicros(latency.getValueAtPercentile(50)),
+                TimeUnit.NANOSECONDS.toMicros(latency.getValueAtPercentile(99)),
+                TimeUnit.NANOSECONDS.toMicros(latency.getValueAtPercentile(99.9)),
+                TimeUnit.NANOSECONDS.toMicros(latency.getMaxValue()),
+                totalAllocatedBytes < 0 ? "not available" :
+                    (long) (totalAllocatedBytes / seconds / (1 << 20)) + "MB/s, " +
+                    (totalOperations == 0 ? 0 : totalAllocatedBytes / totalOperations) + " bytes/op");
+
+    assertThat(tornRead.get(), nullValue());
+    assertThat(reloads.get(), greaterThan(0L));
+    assertThat(totalOperations, greaterThan(0L));
+    assertThat("a lookup stalled for " + TimeUnit.NANOSECONDS.toMillis(latency.getMaxValue()) + "ms",
+               latency.getMaxValue(), lessThanOrEqualTo(MAX_STALL.nanos()));
+  }
+
+  // Returns why the value is torn, null if it is consistent
+  private static String checkValue(String value, int key, long lastGeneration) {
+    if (value == null)
+      return "the key is missing";
+    int separator = value.indexOf(':');
+    if (separator < 0 || value.substring(separator + 1).equals(Integer.toString(key)) == false)
+      return "the value [" + value + "] belongs to another key";
+    if (Long.parseLong(value.substring(0, separator)) < lastGeneration)
+      return "the value [" + value + "] is older than the generation " + lastGeneration;
+    return null;
+  }
+
+  private static void writeGeneration(Path dictionaryPath, long generation, int keys, IntFunction<String> dictionaryKey)
+      throws Exception {
+    List<String> lines = new ArrayList<>(keys);
+    for (int i = 0; i < keys; i++)
+      lines.add("\"" + dictionaryKey.apply(i) + "\": \"" + generation + ":" + i + "\"");
+    Path tmp = dictionaryPath.resolveSibling(dictionaryPath.getFileName() + ".tmp");
+    Files.write(tmp, lines, Charset.forName("UTF-8"));
+    Files.move(tmp, dictionaryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // The bytes allocated by the current thread, -1 if the JVM does not track them
+  private static long allocatedBytes() {
+    try {
+      return (Long) ManagementFactory.getPlatformMBeanServer().invoke(
+          new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME), "getThreadAllocatedBytes",
+          new Object[] { Thread.currentThread().getId() }, new String[] { long.class.getName() });
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright [2017] [Ettore Caprella]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.elasticsearch.plugin.ingest.translate;
+
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.test.ESTestCase;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.Charset;
+
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import com.cronutils.model.Cron;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.parser.CronParser;
+import static com.cronutils.model.CronType.QUARTZ;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+
+
+/**
+ * Records the JFR events of a load and of the lookups, and reads them back from the dump of the recording.
+ *
+ * Starting a recording needs a permission the plugin doesn't grant: the test runs in the {@code jfrTest} task,
+ * without the security manager.
+ */
+public class TranslatorEventsTests extends ESTestCase {
+  private Cron cron1sec;
+
+  public TranslatorEventsTests() {
+    String strCron1sec = "*/1 * * * * ?";
+    CronParser unixCronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(QUARTZ));
+    cron1sec = unixCronParser.parse(strCron1sec);
+  }
+
+  private Path setupDictionary(String dictionary, List<String> lines) throws Exception {
+    Path translateConfigDirectory = createTempDir().resolve("ingest-translate");
+    Files.createDirectories(translateConfigDirectory);
+    Path dictionaryPath = translateConfigDirectory.resolve(dictionary);
+    Files.write(dictionaryPath, lines, Charset.forName("UTF-8"));
+    return dictionaryPath;
+  }
+
+  public void testLoadAndLookupEvents() throws Exception {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 100; i++)
+      lines.add("host-" + i + ": \"owner " + i + "\"");
+    Path dictionaryPath = setupDictionary("events.yml", lines);
+    Path dump = createTempDir().resolve("events.jfr");
+
+    Translator translator;
+    try (Recording recording = new Recording()) {
+      recording.enable(TranslatorEvents.DictionaryCheck.class);
+      recording.enable(TranslatorEvents.DictionaryParse.class);
+      recording.enable(TranslatorEvents.DictionaryBuild.class);
+      recording.enable(TranslatorEvents.DictionarySwap.class);
+      // every lookup is slow enough
+      recording.enable(TranslatorEvents.SlowLookup.class).withThreshold(Duration.ZERO);
+      recording.start();
+
+      translator = Translator.Factory.create("string", dictionaryPath, cron1sec);
+      TranslateProcessor processor = processor(translator);
+      processor.execute(document("host-42"));
+      processor.execute(document("unknown"));
+
+      recording.stop();
+      recording.dump(dump);
+    }
+    String dictionary = translator.getSourceName();
+    List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+      .filter(event -> dictionary.equals(event.getString("dictionary")))
+      .collect(Collectors.toList());
+
+    // the monitoring can check the source again before the recording stops
+    List<RecordedEvent> checks = events(events, TranslatorEvents.DictionaryCheck.class);
+    assertThat(checks, hasSize(greaterThan(0)));
+    assertThat(checks.get(0).getBoolean("changed"), is(true));
+
+    List<RecordedEvent> parses = events(events, TranslatorEvents.DictionaryParse.class);
+    assertThat(parses, hasSize(1));
+    assertThat(parses.get(0).getInt("entries"), is(100));
+    assertThat(parses.get(0).getLong("valuesBytes"), greaterThan(0L));
+
+    List<RecordedEvent> builds = events(events, TranslatorEvents.DictionaryBuild.class);
+    assertThat(builds, hasSize(1));
+    assertThat(builds.get(0).getInt("entries"), is(100));
+    assertThat(builds.get(0).getLong("estimatedBytes"), greaterThan(0L));
+
+    assertThat(events(events, TranslatorEvents.DictionarySwap.class), hasSize(greaterThan(0)));
+
+    List<RecordedEvent> lookups = events(events, TranslatorEvents.SlowLookup.class);
+    assertThat(lookups, hasSize(2));
+    assertThat(lookups.get(0).getString("translator"), is("StringTranslator"));
+    assertThat(lookups.get(0).getString("key"), is("host-42"));
+    assertThat(lookups.get(0).getBoolean("hit"), is(true));
+    assertThat(lookups.get(1).getString("key"), is("unknown"));
+    assertThat(lookups.get(1).getBoolean("hit"), is(false));
+    translator.close();
+  }
+
+  public void testNoSlowLookupWhileDisabled() throws Exception {
+    Path dictionaryPath = setupDictionary("events.yml", Collections.singletonList("host-1: owner"));
+    Translator translator = Translator.Factory.create("string", dictionaryPath, cron1sec);
+    Path dump = createTempDir().resolve("events.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(TranslatorEvents.DictionarySwap.class);
+      recording.disable(TranslatorEvents.SlowLookup.class);
+      recording.start();
+      assertThat(TranslatorEvents.SlowLookup.TYPE.isEnabled(), is(false));
+
+      TranslateProcessor processor = processor(translator);
+      processor.execute(document("host-1"));
+      processor.execute(document("unknown"));
+
+      recording.stop();
+      recording.dump(dump);
+    }
+    assertThat(events(RecordingFile.readAllEvents(dump), TranslatorEvents.SlowLookup.class), empty());
+    translator.close();
+  }
+
+  private static TranslateProcessor processor(Translator translator) throws Exception {
+    return new TranslateProcessor(randomAlphaOfLength(10), randomAlphaOfLength(10), "source.host", "source.owner",
+                                  "events.yml", false, false, false, translator);
+  }
+
+  // The events of the type, in the order they were recorded
+  private static List<RecordedEvent> events(List<RecordedEvent> events, Class<?> type) {
+    String name = type.getAnnotation(Name.class).value();
+    return events.stream()
+      .filter(event -> event.getEventType().getName().equals(name))
+      .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+      .collect(Collectors.toList());
+  }
+
+  private static IngestDocument document(String host) {
+    Map<String, Object> source = new HashMap<>();
+    source.put("source", new HashMap<>(Collections.singletonMap("host", host)));
+    return new IngestDocument(source, new HashMap<>());
+  }
+
+}